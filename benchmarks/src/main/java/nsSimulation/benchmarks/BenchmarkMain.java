@@ -0,0 +1,34 @@
+package nsSimulation.benchmarks;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*==============================================================================
+Entry point of benchmarks.jar
+- takes the usual JMH command line (e.g. a regexp of the benchmarks to run, -p, -f)
+- unless told otherwise, adds the GC/allocation profiler and writes the results
+  as JSON to jmh-result-<date>.json, so steps per second can be tracked over time
+==============================================================================*/
+
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLine);
+
+        if (commandLine.getProfilers().isEmpty())
+            options.addProfiler(GCProfiler.class);
+        if (!commandLine.getResultFormat().hasValue())
+            options.resultFormat(ResultFormatType.JSON);
+        if (!commandLine.getResult().hasValue())
+            options.result("jmh-result-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,55 @@
+package nsSimulation.benchmarks;
+
+import nsSimulation.SimulationConfig;
+import nsSimulation.TrafficSimulation;
+
+/*==============================================================================
+Configurations of the roads used by the benchmarks
+- the same parameters as TrafficSimulation.getStatisticalData() (section VIII, D
+  of the paper), only the road size, the number of lanes, the density and the
+  mix of cars vary
+- the density is per cell of a two-lane road, as in getStatisticalData(); with
+  more lanes the number of cars grows with the lanes, so the density per lane
+  stays the same
+==============================================================================*/
+
+final class BenchmarkRoads {
+
+    static final long SEED = 42;
+
+    private BenchmarkRoads() {
+    }
+
+    static SimulationConfig config(int roadSize, double density, double fastCarRatio, boolean brokenCar, int iterations, int stepSegments) {
+        return config(roadSize, 2, density, fastCarRatio, brokenCar, iterations, stepSegments);
+    }
+
+    static SimulationConfig config(int roadSize, int numLanes, double density, double fastCarRatio, boolean brokenCar, int iterations, int stepSegments) {
+        TrafficSimulation.DEBUG = 0;                            // no output from the runs
+        TrafficSimulation.ROAD_SIZE = roadSize;
+        TrafficSimulation.NUM_LANES = numLanes;
+        TrafficSimulation.NUMBER_OF_ITERATIONS = iterations;
+        TrafficSimulation.STEP_SEGMENTS = stepSegments;
+        TrafficSimulation.MASTER_SEED = SEED;
+
+        TrafficSimulation.APPLY_SYMMETRIC_RULE = true;
+        TrafficSimulation.DISTANCE_TO_LOOK_AHEAD = 7;
+        TrafficSimulation.SLACK = 3;
+        TrafficSimulation.MAX_ACCELERATION = 1;
+        TrafficSimulation.MAX_SPEED_SLOW_CAR = 3;
+        TrafficSimulation.MAX_SPEED_FAST_CAR = 5;
+
+        int totalCars = (int) (roadSize * density * numLanes / 2);
+        TrafficSimulation.DENSITY = density;
+        TrafficSimulation.FAST_CAR_RATIO = fastCarRatio;
+        TrafficSimulation.NUM_FAST_CARS = (int) (fastCarRatio * totalCars);
+        TrafficSimulation.NUM_SLOW_CARS = totalCars - TrafficSimulation.NUM_FAST_CARS;
+        TrafficSimulation.HAS_BROKEN_CAR = brokenCar;
+        if (brokenCar) {
+            TrafficSimulation.NUM_SLOW_CARS++;                  // broken car is counted in number of slow cars
+        }
+        TrafficSimulation.BREAKING_DOWN_PROBABILITY = brokenCar ? 0.3 : 0.0;
+
+        return SimulationConfig.fromGlobals();
+    }
+}
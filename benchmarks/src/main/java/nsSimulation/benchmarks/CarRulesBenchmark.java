@@ -0,0 +1,87 @@
+package nsSimulation.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import nsSimulation.BrokenCarNS;
+import nsSimulation.CarNS;
+import nsSimulation.SimulationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Cost of the rules of one car as a step applies them (CarNS.changeLane, then CarNS.moveForward; the broken car
+ * also draws whether it breaks down) per vehicle type. The speeds of a whole lane at once (VelocityKernel) are
+ * measured by NextStateBenchmark with vectorKernel=true.
+ * The inputs cycle through a table of random neighbourhoods, so the branches are not always taken the same way.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CarRulesBenchmark {
+
+    private static final int NUM_INPUTS = 1024;                 // power of 2
+
+    @Param({"slow", "fast", "broken"})
+    public String type;
+
+    private SimulationConfig config;
+    private int maxSpeed;
+    private final int[] lane = new int[NUM_INPUTS];
+    private final int[] speed = new int[NUM_INPUTS];
+    private final int[] gapFront = new int[NUM_INPUTS];
+    private final int[] speedFront = new int[NUM_INPUTS];
+    private final int[] gapFrontLeft = new int[NUM_INPUTS];
+    private final int[] speedFrontLeft = new int[NUM_INPUTS];
+    private final int[] gapBehindLeft = new int[NUM_INPUTS];
+    private final int[] gapFrontRight = new int[NUM_INPUTS];
+    private final int[] speedFrontRight = new int[NUM_INPUTS];
+    private final int[] gapBehindRight = new int[NUM_INPUTS];
+    private final boolean[] dawdle = new boolean[NUM_INPUTS];
+    private final float[] rand = new float[NUM_INPUTS];
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        config = BenchmarkRoads.config(1000, 0.2, 0.5, true, 0, 1);
+        maxSpeed = type.equals("fast") ? config.maxSpeedFastCar : config.maxSpeedSlowCar;
+
+        Random r = new Random(BenchmarkRoads.SEED);
+        for (int i = 0; i < NUM_INPUTS; i++) {
+            lane[i] = r.nextInt(config.numLanes) + 1;
+            speed[i] = r.nextInt(maxSpeed + 1);
+            gapFront[i] = r.nextInt(20);
+            speedFront[i] = r.nextInt(config.maxSpeedFastCar + 1);
+            boolean hasLeft = lane[i] < config.numLanes, hasRight = lane[i] > 1;
+            gapFrontLeft[i] = hasLeft ? r.nextInt(20) : CarNS.NO_LANE;
+            speedFrontLeft[i] = r.nextInt(config.maxSpeedFastCar + 1);
+            gapBehindLeft[i] = hasLeft ? r.nextInt(20) : CarNS.NO_LANE;
+            gapFrontRight[i] = hasRight ? r.nextInt(20) : CarNS.NO_LANE;
+            speedFrontRight[i] = r.nextInt(config.maxSpeedFastCar + 1);
+            gapBehindRight[i] = hasRight ? r.nextInt(20) : CarNS.NO_LANE;
+            dawdle[i] = r.nextDouble() < config.probabilityFluctuation;
+            rand[i] = r.nextFloat();
+        }
+    }
+
+    @Benchmark
+    public int carRules() {
+        int i = next++ & (NUM_INPUTS - 1);
+        int newLane = CarNS.changeLane(config, lane[i], speed[i], gapFront[i], speedFront[i],
+                gapFrontLeft[i], speedFrontLeft[i], gapBehindLeft[i], gapFrontRight[i], speedFrontRight[i], gapBehindRight[i]);
+        int newSpeed = CarNS.moveForward(config, speed[i], maxSpeed, gapFront[i], dawdle[i]);
+        int brokenDown = type.equals("broken") && BrokenCarNS.nextBrokenDown(config, false, rand[i]) ? 1 : 0;
+        return (newLane << 16) + (newSpeed << 1) + brokenDown;
+    }
+}
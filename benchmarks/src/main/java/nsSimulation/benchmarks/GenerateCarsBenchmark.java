@@ -0,0 +1,47 @@
+package nsSimulation.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import nsSimulation.RoadNS;
+import nsSimulation.SimulationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Creation of a road, dominated by RoadNS.generateCars(): random placement of all cars and first sort of the store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GenerateCarsBenchmark {
+
+    @Param({"1000", "10000", "1000000"})
+    public int roadSize;
+
+    @Param({"0.05", "0.4"})
+    public double density;
+
+    private SimulationConfig config;
+    private long seed = BenchmarkRoads.SEED;
+
+    @Setup
+    public void setUp() {
+        config = BenchmarkRoads.config(roadSize, density, 0.5, true, 0, 1);
+    }
+
+    @Benchmark
+    public RoadNS generateCars() {
+        return new RoadNS(config, seed++);
+    }
+}
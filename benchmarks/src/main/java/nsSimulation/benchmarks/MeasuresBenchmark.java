@@ -0,0 +1,44 @@
+package nsSimulation.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import nsSimulation.SimulationResult;
+import nsSimulation.SimulationRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Computation of the measures of a run (SimulationRunner.calculateMeasures), after a short run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeasuresBenchmark {
+
+    @Param({"1000", "100000"})
+    public int roadSize;
+
+    private SimulationRunner runner;
+
+    @Setup
+    public void setUp() {
+        runner = new SimulationRunner(BenchmarkRoads.config(roadSize, 0.2, 0.5, true, 100, 1), BenchmarkRoads.SEED);
+        runner.run(0);
+    }
+
+    @Benchmark
+    public SimulationResult calculateMeasures() {
+        return runner.calculateMeasures(0);
+    }
+}
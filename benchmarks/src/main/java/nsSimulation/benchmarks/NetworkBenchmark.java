@@ -0,0 +1,58 @@
+package nsSimulation.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import nsSimulation.RoadNetwork;
+import nsSimulation.SimulationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Steps per second of RoadNetwork.nextState() for a closed chain of links of 1000 cells.
+ * Compare with NextStateBenchmark (roadSize=1000) divided by the number of links:
+ * the difference is the cost of the boundary exchange and of the transfers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NetworkBenchmark {
+
+    private static final int LINK_SIZE = 1000;
+
+    @Param({"1", "50", "500"})
+    public int links;
+
+    @Param({"0.2"})
+    public double density;
+
+    private RoadNetwork network;
+
+    @Setup
+    public void setUp() {
+        SimulationConfig config = BenchmarkRoads.config(LINK_SIZE, density, 0.5, false, 0, 1);
+        network = new RoadNetwork(BenchmarkRoads.SEED);
+        for (int i = 0; i < links; i++) {
+            network.addNode();
+        }
+        for (int i = 0; i < links; i++) {
+            network.addLink(config, i, (i + 1) % links);
+        }
+    }
+
+    @Benchmark
+    public RoadNetwork nextState() {
+        network.nextState();
+        return network;
+    }
+}
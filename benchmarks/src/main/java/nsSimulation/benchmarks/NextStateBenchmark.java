@@ -0,0 +1,58 @@
+package nsSimulation.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import nsSimulation.RoadNS;
+import nsSimulation.TrafficSimulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Steps per second of RoadNS.nextState() across road sizes and densities.
+ * The road keeps evolving from one invocation to the next, as in a real run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NextStateBenchmark {
+
+    @Param({"1000", "10000", "1000000"})
+    public int roadSize;
+
+    @Param({"0.05", "0.2", "0.4"})
+    public double density;
+
+    @Param({"2"})
+    public int numLanes;
+
+    @Param({"1"})
+    public int stepSegments;
+
+    @Param({"true", "false"})
+    public boolean vectorKernel;
+
+    private RoadNS road;
+
+    @Setup
+    public void setUp() {
+        TrafficSimulation.VECTOR_KERNEL = vectorKernel;
+        road = new RoadNS(BenchmarkRoads.config(roadSize, numLanes, density, 0.5, true, 0, stepSegments), BenchmarkRoads.SEED);
+    }
+
+    @Benchmark
+    public RoadNS nextState() {
+        road.nextState();
+        return road;
+    }
+}
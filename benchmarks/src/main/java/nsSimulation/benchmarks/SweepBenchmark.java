@@ -0,0 +1,67 @@
+package nsSimulation.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import nsSimulation.SimulationConfig;
+import nsSimulation.SimulationResult;
+import nsSimulation.SweepExecutor;
+import nsSimulation.TrafficSimulation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * A full but small parameter sweep through SweepExecutor, on all cores:
+ * 3 densities x 3 fast car ratios x with/without broken car x 2 repetitions,
+ * the repetitions of a configuration run one by one or as the replicas of one road.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SweepBenchmark {
+
+    private static final int ROAD_SIZE = 500;
+    private static final int NUMBER_OF_ITERATIONS = 300;
+    private static final int NUM_REPETITIONS = 2;
+
+    @Param({"1", "2"})
+    public int replicas;
+
+    @Benchmark
+    public int smallSweep() throws Exception {
+        SweepExecutor sweep = new SweepExecutor();
+        try {
+            TrafficSimulation.REPLICAS = replicas;
+            for (double density : new double[]{0.05, 0.2, 0.4}) {
+                for (double ratio : new double[]{0, 0.5, 1.0}) {
+                    for (boolean broken : new boolean[]{true, false}) {
+                        SimulationConfig config = BenchmarkRoads.config(ROAD_SIZE, density, ratio, broken, NUMBER_OF_ITERATIONS, 1);
+                        for (int repetition = 0; repetition < NUM_REPETITIONS; repetition++) {
+                            sweep.add(config, repetition);
+                        }
+                    }
+                }
+            }
+
+            int numCars = 0;
+            List<Future<SimulationResult>> results = sweep.start();
+            for (Future<SimulationResult> result : results) {
+                numCars += result.get().numFastCars;
+            }
+            return numCars;
+        } finally {
+            sweep.shutdown();
+        }
+    }
+}
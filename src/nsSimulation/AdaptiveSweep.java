@@ -0,0 +1,264 @@
+package nsSimulation;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/*==============================================================================
+Sweep which places its runs where the fundamental diagram changes, instead of
+on a fixed grid
+- the sweep is a set of curves: the flow as a function of one parameter (the
+  density, or the fast car ratio) with the other parameters fixed; every curve
+  starts from a coarse grid of its parameter
+- then, round after round, the intervals between neighbouring points with the
+  highest score are cut in two (a new point in the middle, with all its
+  repetitions): the score of an interval is how far its ends are from the
+  line through their neighbours, i.e. how much the slope of the flow changes
+  there (the peak, a sharp drop), plus the standard error of the mean flow at
+  its ends (the variance between the repetitions); where the flow is a
+  straight line, more points would not tell more, whatever its slope
+- it stops when the budget (runs run, the coarse grid included) is spent, or
+  when all intervals are shorter than twice the min spacing of their curve
+- the runs are run by a SweepExecutor, round after round on all cores; runs
+  found in the cache (see ResultCache) are not counted in the budget
+- the flow of a run is the number of cars passing a cell per step, i.e. the
+  traveled distance of all cars per cell and per step
+==============================================================================*/
+
+public class AdaptiveSweep {
+
+    /*
+    The configuration of a curve at a value of its parameter, e.g. of a density
+    */
+    public interface Curve {
+        SimulationConfig at(double x);
+    }
+
+    /*
+    A point of a curve: the flows of its repetitions
+    */
+    private static final class Point {
+        final SimulationConfig config;
+        int numRuns = 0;
+        double sumFlow = 0;
+        double sumSquaredFlow = 0;
+
+        Point(SimulationConfig config) {
+            this.config = config;
+        }
+
+        void add(SimulationResult result) {
+            double flow = result.getTotalDistance() / ((double) config.roadSize * Math.max(1, result.measurementSteps));
+            numRuns++;
+            sumFlow += flow;
+            sumSquaredFlow += flow * flow;
+        }
+
+        double mean() {
+            return sumFlow / numRuns;
+        }
+
+        double standardError() {
+            if (numRuns < 2) return 0;
+            double variance = (sumSquaredFlow - sumFlow * sumFlow / numRuns) / (numRuns - 1);
+            return Math.sqrt(Math.max(0, variance) / numRuns);
+        }
+    }
+
+    private static final class CurvePoints {
+        final Curve curve;
+        final double minSpacing;
+        final TreeMap<Double, Point> points = new TreeMap<>();
+
+        CurvePoints(Curve curve, double minSpacing) {
+            this.curve = curve;
+            this.minSpacing = minSpacing;
+        }
+    }
+
+    /*
+    An interval of a curve which may be cut in two
+    */
+    private static final class Interval {
+        final CurvePoints curve;
+        final double from;
+        final double to;
+        final double score;
+
+        Interval(CurvePoints curve, double from, double to, double score) {
+            this.curve = curve;
+            this.from = from;
+            this.to = to;
+            this.score = score;
+        }
+    }
+
+    private final SweepExecutor sweep;
+    private final int numRepetitions;
+    private final int budget;
+    private final List<CurvePoints> curves = new ArrayList<>();
+    private final List<Point> pending = new ArrayList<>();     // the points of the next round
+    private int spent = 0;
+    private int numRounds = 0;
+    private int numRuns = 0;                                    // including those found in the cache
+
+    /*
+    Input:
+        sweep           runs the rounds, with its cache and observers if any
+        numRepetitions  runs per point
+        budget          max number of runs to run
+    */
+    public AdaptiveSweep(SweepExecutor sweep, int numRepetitions, int budget) {
+        if (numRepetitions < 1)
+            throw new IllegalArgumentException("Number of repetitions must be positive: " + numRepetitions);
+        this.sweep = sweep;
+        this.numRepetitions = numRepetitions;
+        this.budget = budget;
+    }
+
+    /*
+    Add a curve, with the points of its coarse grid
+    Input:
+        coarse          the first values of the parameter, at least 2
+        minSpacing      the shortest interval of the parameter between two points, e.g. one car for a density
+    */
+    public void addCurve(Curve curve, double[] coarse, double minSpacing) {
+        if (coarse.length < 2)
+            throw new IllegalArgumentException("A curve starts with at least 2 points: " + coarse.length);
+        CurvePoints c = new CurvePoints(curve, minSpacing);
+        for (double x : coarse) {
+            if (!c.points.containsKey(x)) {
+                Point point = new Point(curve.at(x));
+                c.points.put(x, point);
+                pending.add(point);
+            }
+        }
+        curves.add(c);
+    }
+
+    /*
+    Run the coarse grids, then refine the curves until the budget is spent
+    Input:
+        sink    receives the result of every run (in the order they finish), null for none
+    Output:
+        the number of runs, including those found in the cache
+    */
+    public int run(ResultSink sink) throws IOException, InterruptedException, ExecutionException {
+        int runs = 0;
+        while (!pending.isEmpty()) {
+            runs += runRound(sink);
+            if (TrafficSimulation.DEBUG >= 1)
+                System.out.println("Round " + numRounds + ": " + spent + " of " + budget + " simulations run\n");
+            refine();
+        }
+        return runs;
+    }
+
+    private int runRound(ResultSink sink) throws InterruptedException, ExecutionException {
+        sweep.clear();
+        for (Point point : pending) {
+            for (int repetition = 0; repetition < numRepetitions; repetition++) {
+                sweep.add(point.config, repetition);
+            }
+        }
+        int firstRun = numRuns;                                 // the runs of the rounds are numbered one after the other
+        List<Future<SimulationResult>> results = sweep.start(sink == null ? null : (run, result) -> sink.write(firstRun + run, result));
+        for (int run = 0; run < results.size(); run++) {
+            pending.get(run / numRepetitions).add(results.get(run).get());
+        }
+        spent += results.size() - sweep.getNumCached() - sweep.getNumShared();
+        numRounds++;
+        numRuns += results.size();
+        pending.clear();
+        return results.size();
+    }
+
+    /*
+    Choose the points of the next round: the middles of the intervals with the highest scores,
+    enough of them to keep all cores busy, as long as the budget allows
+    */
+    private void refine() {
+        int maxPoints = Math.min((budget - spent) / numRepetitions, Math.max(1, sweep.getParallelism() / numRepetitions));
+        if (maxPoints <= 0) return;
+
+        List<Interval> intervals = new ArrayList<>();
+        for (CurvePoints c : curves) {
+            addIntervals(c, intervals);
+        }
+        intervals.sort(Comparator.comparingDouble((Interval i) -> i.score).reversed());
+        for (int i = 0; i < Math.min(maxPoints, intervals.size()); i++) {
+            Interval interval = intervals.get(i);
+            double middle = (interval.from + interval.to) / 2;
+            Point point = new Point(interval.curve.curve.at(middle));
+            interval.curve.points.put(middle, point);
+            pending.add(point);
+        }
+    }
+
+    /*
+    Score the intervals of a curve which are long enough to be cut
+    */
+    private static void addIntervals(CurvePoints c, List<Interval> intervals) {
+        int n = c.points.size();
+        double[] x = new double[n];
+        double[] flow = new double[n];
+        double[] error = new double[n];
+        int i = 0;
+        for (Map.Entry<Double, Point> entry : c.points.entrySet()) {
+            x[i] = entry.getKey();
+            flow[i] = entry.getValue().mean();
+            error[i] = entry.getValue().standardError();
+            i++;
+        }
+
+        // how far every point is from the line through its neighbours, 0 for the ends
+        // (a curve of 2 points only, no line to compare with, is scored by its change of flow)
+        double[] bend = new double[n];
+        if (n == 2)
+            bend[0] = Math.abs(flow[1] - flow[0]);
+        for (i = 1; i < n - 1; i++) {
+            double line = flow[i - 1] + (flow[i + 1] - flow[i - 1]) * (x[i] - x[i - 1]) / (x[i + 1] - x[i - 1]);
+            bend[i] = Math.abs(flow[i] - line);
+        }
+
+        for (i = 0; i < n - 1; i++) {
+            if (x[i + 1] - x[i] < 2 * c.minSpacing) continue;
+            double score = bend[i] + bend[i + 1] + (error[i] + error[i + 1]) / 2;
+            intervals.add(new Interval(c, x[i], x[i + 1], score));
+        }
+    }
+
+    /*
+    number of runs run so far, not counting the runs found in the cache
+    */
+    public int getSpent() {
+        return spent;
+    }
+
+    public int getNumRounds() {
+        return numRounds;
+    }
+
+    /*
+    Output:
+        per curve (in the order of addCurve()), the value of the parameter with the highest mean flow so far
+    */
+    public double[] getPeaks() {
+        double[] peaks = new double[curves.size()];
+        for (int c = 0; c < curves.size(); c++) {
+            double best = Double.NEGATIVE_INFINITY;
+            for (Map.Entry<Double, Point> entry : curves.get(c).points.entrySet()) {
+                if (entry.getValue().mean() > best) {
+                    best = entry.getValue().mean();
+                    peaks[c] = entry.getKey();
+                }
+            }
+        }
+        return peaks;
+    }
+}
@@ -4,177 +4,218 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
-import java.io.IOException;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-
-final public class AnimatedSimulation {
-
-    private RoadNS road;
-    private static final int cooldown = TrafficSimulation.SIMULATION_STEP_COOLDOWN; //cooldown between steps of the simulation
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/*
+ * Optional viewer of a simulation, attached to a SimulationRunner as an observer.
+ * The window is created with the viewer, and can show the runs one after another.
+ *
+ * The simulation does not wait for the display: once per frame the viewer asks for
+ * the state of the road, and the simulation thread copies it into an immutable Frame
+ * after its next step and publishes it (a volatile field, no lock). The Swing thread
+ * draws the last published frame FRAMES_PER_SECOND times per second, only the visible
+ * part of the road, over a pre-rendered image of the road.
+ */
+final public class AnimatedSimulation implements SimulationRunner.Observer {
+
+    private static final int cooldown = TrafficSimulation.SIMULATION_STEP_COOLDOWN; //cooldown between steps of the simulation, 0 for full speed
     private final int carWidth = TrafficSimulation.CAR_WIDTH;
     private final int carHeight = 10;
-    private int numRuns;
-    
-    private int numIterations;
-    
+    private final int laneHeight = carHeight + 4;
+    private static final int ROAD_TOP = 100;
+    private static final int DASH_PERIOD = 20;              // a lane divider dash of 10 px every 20 px
+    private static final int TILE_WIDTH = 50 * DASH_PERIOD; // width of the pre-rendered road image, repeated along the road
+
     private JFrame frame;
     private DrawPanel drawPanel;
+    private final Timer frameTimer;
+
+    // colors of the cars: one shade per car, depending on its ID only
+    private static final int NUM_SHADES = 130;
+    private final Color[] slowCarColors = new Color[NUM_SHADES];
+    private final Color[] fastCarColors = new Color[NUM_SHADES];
+    private final Color brokenCarColor = new Color(0, 255, 0);
+    private final Color backgroundColor = new Color(240, 240, 185);
+
+    private volatile boolean frameRequested = true;         // set by the Swing thread, cleared by the simulation thread
+    private volatile Frame latest = null;                   // the last published state of the road
+    private Frame drawn = null;                             // the frame on the screen, Swing thread only
+    private BufferedImage roadTile = null;                  // Swing thread only, for the number of lanes of roadTileLanes
+    private int roadTileLanes = -1;
 
     /**
-     * This method initialises and performs the simulation.
+     * State of the road after a step, never changed once published. The cars are
+     * copied from the columns of the store, in the order of the store.
      */
-    public void initialiseSimulation(int numIterations) {
-        this.numIterations = numIterations;
-        
-        road = new RoadNS();
-        
-        // set window title and stop running if X is pressed
-        frame = new JFrame("Simulation");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-
-        if (TrafficSimulation.SIMULATION_STEP_COOLDOWN > 0){
-            // create a panel that will contain the painting
-            drawPanel = new DrawPanel();
-            drawPanel.setPreferredSize(new Dimension(TrafficSimulation.ROAD_SIZE * carWidth, 300));
-
-            // create a panel that makes the scrollbars appear
-            JScrollPane jsp = new JScrollPane(drawPanel);
-            // put the painting panel inside the scrollable panel
-            jsp.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS);
-
-            // put everything on the frame
-            frame.getContentPane().add(BorderLayout.CENTER, jsp);
-            frame.setResizable(true);
-            frame.setSize(2000, 400);
-            frame.setLocationByPlatform(true);
-            frame.setVisible(true);
+    private static final class Frame {
+        final int roadSize;
+        final int numRows;                                  // lanes of all replicas of the road
+        final int numCars;
+        final int[] id;
+        final int[] lane;
+        final int[] position;
+        final int[] type;
+
+        Frame(RoadNS road) {
+            VehicleStore cars = road.getVehicles();
+            roadSize = road.getConfig().roadSize;
+            numRows = road.getReplicas() * road.getConfig().numLanes;
+            numCars = cars.size();
+            id = new int[numCars];
+            lane = new int[numCars];
+            position = new int[numCars];
+            type = new int[numCars];
+            System.arraycopy(cars.id, 0, id, 0, numCars);
+            System.arraycopy(cars.lane, 0, lane, 0, numCars);
+            System.arraycopy(cars.position, 0, position, 0, numCars);
+            System.arraycopy(cars.type, 0, type, 0, numCars);
         }
     }
 
     /**
-     * Continuously calculates and presents the next state.
-     * @param numberOfIterations The number of states the simulation will run
-     * for. If 0, then it never stops running.
+     * This method creates the window of the animation.
+     * @param roadSize The number of cells of the roads which will be shown.
      */
-    public String runSimulation(int repetition) throws IOException {
-        numRuns = 0;
+    public AnimatedSimulation(int roadSize) {
+        for (int i = 0; i < NUM_SHADES; i++) {
+            slowCarColors[i] = new Color(0, i, 255);
+            fastCarColors[i] = new Color(255, i, 0);
+        }
 
-        while (numIterations == 0 || numRuns < numIterations) {
-            numRuns++;
+        // set window title and stop running if X is pressed
+        frame = new JFrame("Simulation");
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-            road.nextState(); // calculates the next state
-            frame.repaint(); // calls paintComponent(g) to draw the new state
-            
-            if (TrafficSimulation.DEBUG>=10)
-                road.printTrafficSituation();
+        // create a panel that will contain the painting
+        drawPanel = new DrawPanel();
+        drawPanel.setPreferredSize(new Dimension(roadSize * carWidth, 300));
+        drawPanel.setBackground(backgroundColor);
+
+        // create a panel that makes the scrollbars appear
+        JScrollPane jsp = new JScrollPane(drawPanel);
+        // put the painting panel inside the scrollable panel
+        jsp.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_ALWAYS);
+
+        // put everything on the frame
+        frame.getContentPane().add(BorderLayout.CENTER, jsp);
+        frame.setResizable(true);
+        frame.setSize(2000, 400);
+        frame.setLocationByPlatform(true);
+        frame.setVisible(true);
+
+        // every frame: draw the last published state if it is new, and ask for the next one
+        frameTimer = new Timer(1000 / TrafficSimulation.FRAMES_PER_SECOND, e -> {
+            if (latest != drawn)
+                drawPanel.repaint();
+            frameRequested = true;
+        });
+        frameTimer.start();
+    }
 
-            // print the current flow every 100 iterations
-            if (TrafficSimulation.DEBUG>=5 && numRuns % 100 == 0)
-                System.out.println("Iterations=" + numRuns + ": Traveled distance=" + road.getTotalTraveledDistance() + 
-                        " NumCarsPassingEnd=" + road.getNumCarsPassingEnd());
+    /**
+     * Publishes the new state if the display asked for one, then waits for the cooldown (if any).
+     * Called by the simulation thread after every step.
+     */
+    @Override
+    public void stepDone(RoadNS road, int iteration) {
+        if (frameRequested) {
+            frameRequested = false;
+            latest = new Frame(road);
+        }
 
+        if (cooldown > 0) {
             try {
                 Thread.sleep(cooldown);
-            } catch (Exception e) {
-                e.printStackTrace();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
         }
+    }
 
-        if (TrafficSimulation.DEBUG == 1){
-            System.out.println("Num Iterations = " + numRuns + " Flow = " + road.getNumCarsPassingEnd());
-//            System.out.println("Iterations=" + numRuns + ": Traveled distance=" + road.getTotalTraveledDistance() + 
-//                    " NumCarsPassingEnd=" + road.getNumCarsPassingEnd());
-        }
+    /**
+     * Stops drawing and closes the window.
+     */
+    public void close() {
+        SwingUtilities.invokeLater(() -> {
+            frameTimer.stop();
+            frame.dispose();
+        });
+    }
 
-        return calculateMeasures(repetition);
+    private Color getColor(int type, int id) {
+        if (type == RoadNS.TYPE_CAR_SLOW)
+            return slowCarColors[Math.floorMod(id * 37, NUM_SHADES)];
+        if (type == RoadNS.TYPE_CAR_FAST)
+            return fastCarColors[Math.floorMod(id * 37, NUM_SHADES)];
+        return brokenCarColor;
     }
 
     /**
-     * Helper panel used to draw the animation. Translates the current data
-     * about the cars on the road to an image.
+     * Draws the road without cars (the road and the lines that separate the lanes) once,
+     * for a width of TILE_WIDTH, a multiple of the period of the dashes.
      */
-    private class DrawPanel extends JPanel {
-
-        public void paintComponent(Graphics g) {
-            setBackground(new Color(240, 240, 185));
+    private BufferedImage getRoadTile(int numRows) {
+        if (roadTile == null || roadTileLanes != numRows) {
+            roadTile = new BufferedImage(TILE_WIDTH, numRows * laneHeight + 2, BufferedImage.TYPE_INT_RGB);
+            Graphics g = roadTile.getGraphics();
             g.setColor(Color.BLACK);
-
-            if (TrafficSimulation.SIMULATION_STEP_COOLDOWN > 0) {
-
-                //Draw the road
-                g.fillRect(0, 100, TrafficSimulation.ROAD_SIZE * carWidth, carHeight * 2 + 10); // xpos, ypos, width, height
-
-                //Draw the line that separates the two lanes.
-                g.setColor(Color.white);
-                for (int i = 0; i < TrafficSimulation.ROAD_SIZE * carWidth / 20; i++) {
-                    g.drawLine(i * 20, 100 + carHeight + 5, i * 20 + 10, 100 + carHeight + 5);
-                }
-
-                //Draw all cars as color filled round rectangles.
-                for (CarNS c : road.getCars()) {
-                    g.setColor(c.getColor()); // individual colour for each car
-                    if (c.getLane() == 1) {
-                        g.fillRoundRect(c.getPosition() * carWidth, 117, carWidth - 5, carHeight, 2, 2);
-                    }
-                    if (c.getLane() == 2) {
-                        g.fillRoundRect(c.getPosition() * carWidth, 103, carWidth - 5, carHeight, 2, 2);
-                    }
+            g.fillRect(0, 0, TILE_WIDTH, numRows * laneHeight + 2);
+            g.setColor(Color.white);
+            for (int line = 1; line < numRows; line++) {
+                for (int x = 0; x < TILE_WIDTH; x += DASH_PERIOD) {
+                    g.drawLine(x, 1 + line * laneHeight, x + 10, 1 + line * laneHeight);
                 }
             }
+            g.dispose();
+            roadTileLanes = numRows;
         }
+        return roadTile;
     }
-    
-    private String calculateMeasures(int repetition) {
-        //Flow is measures in number of cars passing a certain point.
-        //Equivalently: Sum over all cars: number of cells traveled / road size
-        int totalDistance = 0;
-        int totalSlowDistance = 0;
-        int totalFastDistance = 0;
-        
-        int maxSpeedSlow = -1;
-        int maxSpeedFast = -1;
-        
-        int bestFlowFast = -1;
-        int bestFlowSlow = -1;
-        int worstFlowFast = 999999999;
-        int worstFlowSlow = 999999999;
-        
-        int numSlow = 0;
-        int numFast = 0;
-        
-        for (CarNS c : road.getCars()) {
-            String type = c.getType();
-            
-            if (type.equals("S")) {
-                numSlow++;
-                bestFlowSlow = c.getTraveledDistance() > bestFlowSlow ? c.getTraveledDistance() : bestFlowSlow;
-                worstFlowSlow = c.getTraveledDistance() < worstFlowSlow ? c.getTraveledDistance() : worstFlowSlow;
-                
-                totalSlowDistance += c.getTraveledDistance();
-                
-                maxSpeedSlow = c.getMaxReachedSpeed() > maxSpeedSlow ? c.getMaxReachedSpeed() : maxSpeedSlow;
-                
-            } else if (type.equals("F")) {
-                numFast++;
-                bestFlowFast = c.getTraveledDistance() > bestFlowFast ? c.getTraveledDistance() : bestFlowFast;
-                worstFlowFast = c.getTraveledDistance() < worstFlowFast ? c.getTraveledDistance() : worstFlowFast;
-                
-                totalFastDistance += c.getTraveledDistance();
-                
-                maxSpeedFast = c.getMaxReachedSpeed() > maxSpeedFast ? c.getMaxReachedSpeed() : maxSpeedFast;
+
+    /**
+     * Helper panel used to draw the animation. Translates the last frame to an
+     * image, only for the visible part of the road.
+     */
+    private class DrawPanel extends JPanel {
+
+        @Override
+        public void paintComponent(Graphics g) {
+            super.paintComponent(g);
+
+            Frame f = latest;
+            drawn = f;
+            if (f == null) return;
+
+            Rectangle visible = g.getClipBounds();
+            if (visible == null) visible = new Rectangle(0, 0, getWidth(), getHeight());
+            int roadWidth = f.roadSize * carWidth;
+            int from = Math.max(0, visible.x);
+            int to = Math.min(roadWidth, visible.x + visible.width);
+            if (from >= to) return;
+
+            //Draw the road, copies of the pre-rendered image
+            BufferedImage tile = getRoadTile(f.numRows);
+            for (int x = from - from % TILE_WIDTH; x < to; x += TILE_WIDTH) {
+                g.drawImage(tile, x, ROAD_TOP, Math.min(x + TILE_WIDTH, roadWidth), ROAD_TOP + tile.getHeight(),
+                        0, 0, Math.min(TILE_WIDTH, roadWidth - x), tile.getHeight(), null);
+            }
+
+            //Draw the visible cars as color filled round rectangles, the leftmost lane on top.
+            int firstCell = from / carWidth;
+            int lastCell = (to - 1) / carWidth;
+            for (int i = 0; i < f.numCars; i++) {
+                int cell = f.position[i];
+                if (cell < firstCell || cell > lastCell) continue;
+                g.setColor(getColor(f.type[i], f.id[i])); // individual colour for each car
+                g.fillRoundRect(cell * carWidth, ROAD_TOP + 3 + (f.numRows - f.lane[i]) * laneHeight, carWidth - 5, carHeight, 2, 2);
             }
-            
         }
-        totalDistance = totalSlowDistance + totalFastDistance;  // do not count that of broken car
-
-        //model, road_block, max_speed_slow, max_speed_fast, fast_car_ratio, density, total_all_cars_distance, total_slow_cars_distance, total_fast_cars_distance, worst_case_distance_slow_cars, worst_cast_distance_fast_cars, best_case_distance_slow_car, best_case_distance_fast_car,num_slow_cars,num_fast_cars,global_rule,speed_slow,speed_fast,repetition,slack,distance_look_ahead
-        return ("NS," + (TrafficSimulation.BREAKING_DOWN_PROBABILITY == 0 ? "0" : "1") + "," + maxSpeedSlow + "," + maxSpeedFast + "," +
-			TrafficSimulation.FAST_CAR_RATIO + "," + TrafficSimulation.DENSITY + "," + totalDistance + "," + totalSlowDistance + "," +
-			totalFastDistance + "," +  worstFlowSlow + "," + worstFlowFast + "," + bestFlowSlow + "," + bestFlowFast + "," + numSlow + "," +
-			numFast + "," + TrafficSimulation.GLOBAL_SPEED_RULE + "," + TrafficSimulation.MAX_SPEED_SLOW_CAR  + "," +
-                        TrafficSimulation.MAX_SPEED_FAST_CAR + ","  + repetition + "," + TrafficSimulation.SLACK + "," + TrafficSimulation.DISTANCE_TO_LOOK_AHEAD);        
     }
-    
+
 }
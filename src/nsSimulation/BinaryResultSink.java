@@ -0,0 +1,150 @@
+package nsSimulation;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*==============================================================================
+Writes the results as fixed-width binary records, asynchronously
+- write() only queues the result, the simulation threads never wait for the disk
+  (unless QUEUE_CAPACITY results are waiting)
+- a background thread takes the queued results in batches, encodes them in a
+  direct buffer and writes the buffer through a FileChannel
+- the file starts with a header (MAGIC, VERSION, record size), then one record of
+  RECORD_SIZE bytes per result, in the order they were written: the index of
+  the run (see ResultSink), then the SimulationResult.RECORD_SIZE bytes of the
+  result; a result written without index gets the number of results written
+  before it
+- ResultConverter turns the file into simulations.csv, in the order of the runs
+- an I/O error of the background thread is thrown by the next write() or close()
+==============================================================================*/
+
+public class BinaryResultSink implements ResultSink {
+
+    public static final int MAGIC = 0x4E393852;                 // "N98R"
+    public static final short VERSION = 3;                 // 2: warm-up and measurement steps, 3: index of the run
+    public static final int HEADER_SIZE = 4 + 2 + 2;
+    public static final int RECORD_SIZE = 4 + SimulationResult.RECORD_SIZE;
+
+    private static final int BATCH_SIZE = 512;                  // records per write to the channel
+    private static final int QUEUE_CAPACITY = 16 * BATCH_SIZE;
+    private static final long POLL_MS = 50;                     // how often the background thread checks whether the sink is closed
+
+    private final FileChannel channel;
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicInteger numWritten = new AtomicInteger();
+    private final Thread writerThread;
+    private volatile boolean closing = false;
+    private volatile IOException failure;
+
+    public BinaryResultSink(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE).flip();
+        writeFully(header);
+
+        writerThread = new Thread(this::writeLoop, "result-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    @Override
+    public void write(SimulationResult result) throws IOException {
+        enqueue(new Record(numWritten.getAndIncrement(), result));
+    }
+
+    @Override
+    public void write(int run, SimulationResult result) throws IOException {
+        numWritten.incrementAndGet();
+        enqueue(new Record(run, result));
+    }
+
+    private void enqueue(Record record) throws IOException {
+        if (failure != null)
+            throw new IOException("Writing the results failed", failure);
+        if (closing)
+            throw new IllegalStateException("Result sink is closed");
+        try {
+            queue.put(record);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing a result");
+        }
+    }
+
+    /*
+    Wait until all queued results are on disk, then close the file
+    */
+    @Override
+    public void close() throws IOException {
+        if (closing) return;
+        closing = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing the result file");
+        } finally {
+            channel.close();
+        }
+        if (failure != null)
+            throw new IOException("Writing the results failed", failure);
+    }
+
+    /*
+    Body of the background thread, runs until the sink is closed and the queue is empty
+    */
+    private void writeLoop() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BATCH_SIZE * RECORD_SIZE);
+        ArrayList<Record> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (true) {
+                Record first = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closing && queue.isEmpty()) return;
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                buffer.clear();
+                for (int i = 0; i < batch.size(); i++) {
+                    buffer.putInt(batch.get(i).run);
+                    batch.get(i).result.writeTo(buffer);
+                }
+                buffer.flip();
+                writeFully(buffer);
+                batch.clear();
+            }
+        } catch (IOException ex) {
+            failure = ex;
+        } catch (InterruptedException ex) {
+            failure = new InterruptedIOException("Result writer interrupted");
+        }
+    }
+
+    private static final class Record {
+        final int run;
+        final SimulationResult result;
+
+        Record(int run, SimulationResult result) {
+            this.run = run;
+            this.result = result;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -1,52 +1,45 @@
 package nsSimulation;
 
-import java.awt.*;
-import java.util.Random;
-
 public class BrokenCarNS extends CarNS {
 
-    private final double breakDownProb = TrafficSimulation.BREAKING_DOWN_PROBABILITY;
-    private final double getFixedProb = TrafficSimulation.GETTING_REPAIRED_PROBABILITY;
     private boolean isBrokenDown;
-    private Random r;
 
     /**
-    Create BROKEN car at a specific position on a specific lane with speed limited by a given speed or its max speed
-    The speed is equal or 1 unit less than the limit speed to make it more realistic
+    Create a snapshot of the BROKEN car at a specific position on a specific lane
 
     Input:
-        ID          ID of car, for debugging purpose
-        lane        lane of car at the beginning 
-        position    position of car at the beginning 
-        limitSpeed  max speed at the beginning - due to road situation, high density for example
+        ID              ID of car, for debugging purpose
+        lane            current lane of car
+        position        current position of car
+        isBrokenDown    whether the car is broken down at the moment
      */
-    public BrokenCarNS(int ID, int lane, int position, int limitSpeed) {
+    public BrokenCarNS(int ID, int lane, int position, boolean isBrokenDown) {
         super(ID, lane, position); // calls the parent constructor
-        r = new Random();
+        this.type = RoadNS.TYPE_CAR_BROKEN;
 
-        maxSpeed = TrafficSimulation.MAX_SPEED_SLOW_CAR;
-        speed = Math.max(Math.min(maxSpeed, limitSpeed) - r.nextInt(2), 0);            // speed is from 0 to [maxSpeed-1, maxSpeed]                
-        isBrokenDown = false;
-        color = new Color(0, 255, 0);
+        this.isBrokenDown = isBrokenDown;
     }
 
-    @Override
-    public int adaptSpeed(SpeedDistance carFront, SpeedDistance carFrontNextLane, SpeedDistance carBehindNextLane){
-            
-        if (isBrokenDown) { // if it broke decelerate by 1 until it stops
-            speed = speed == 0 ? 0 : speed - 1;
-        } else speed = super.adaptSpeed(carFront, carFrontNextLane, carBehindNextLane);
+    public boolean isBrokenDown() {
+        return isBrokenDown;
+    }
 
-        float rand = r.nextFloat();
+    /*
+     * Rules of the broken car: it behaves as a slow car until it breaks down, then it decelerates until it
+     * stops (see RoadNS.changeLane())
+     * Input:
+     *     isBrokenDown    whether the car is broken down at the moment
+     *     rand            random number in [0, 1) of the car in this step, to break down and get repaired
+     * Output: whether the car is broken down in the next step
+     */
+    public static boolean nextBrokenDown(SimulationConfig config, boolean isBrokenDown, float rand) {
         if (isBrokenDown) {
-            if (getFixedProb > 0 && rand > 1 - getFixedProb) // car gets fixed with a small probability
+            if (config.gettingRepairedProbability > 0 && rand > 1 - config.gettingRepairedProbability) // car gets fixed with a small probability
             isBrokenDown = false;
         } else {
-            if (rand < breakDownProb) // car breaks down with a small probability
+            if (rand < config.breakingDownProbability) // car breaks down with a small probability
             isBrokenDown = true;
-        }      
-        
-        setMaxReachedSpeed(speed);
-        return speed;
-    }    
+        }
+        return isBrokenDown;
+    }
 }
@@ -1,8 +1,5 @@
 package nsSimulation;
 
-import java.awt.Color;
-import java.util.Random;
-
 /*==============================================================================
 Implement Car class for NS model based on 
 Nagel, K., Wolf, D. E., Wagner, P., & Simon, P. (1998). Two-lane traffic rules for cellular automata: A systematic approach. Physical Review E, 58(2), 1425–1437. http://doi.org/10.1103/PhysRevE.58.1425
@@ -18,14 +15,19 @@ Nagel, K., Wolf, D. E., Wagner, P., & Simon, P. (1998). Two-lane traffic rules f
     5		135
     6		162
  */
+/*
+ The state of every car is kept in the columns of a VehicleStore (see RoadNS).
+ A CarNS object is only a read-only snapshot of one car, e.g. for the animation,
+ the rules of the model are static methods working directly on the store.
+ */
 public class CarNS {
 
     protected int ID;                           // ID of car, for debugging purpose
+    protected int type;                         // type of car: RoadNS.TYPE_CAR_SLOW, TYPE_CAR_FAST or TYPE_CAR_BROKEN
     protected int speed;                        // current speed of car
     protected int lane;                         // current lane of car
     protected int position;                     // current position of car
     protected int maxSpeed;                     // maximum speed of car, depends on its type: SLOW or FAST
-    protected Color color;                      // color of car, for animation
     protected int traveledDistance;             // number of cells it has traveled so far, for statistical purpose
     protected int maxReachedSpeed = -1;         // the max speed it has reached so far, for statistical purpose
 
@@ -36,8 +38,24 @@ public class CarNS {
         this.traveledDistance = 0;
     }
 
-    public void clearTraveledDistance() {        
-        traveledDistance = 0;                   // reset value
+    /*
+    Create a snapshot of the car stored in a given slot of the store
+    */
+    public static CarNS view(VehicleStore cars, int slot) {
+        CarNS c;
+        int type = cars.type[slot];
+        if (type == RoadNS.TYPE_CAR_BROKEN)
+            c = new BrokenCarNS(cars.id[slot], cars.lane[slot], cars.position[slot], cars.brokenDown[slot]);
+        else if (type == RoadNS.TYPE_CAR_FAST)
+            c = new FastCarNS(cars.id[slot], cars.lane[slot], cars.position[slot]);
+        else
+            c = new SlowCarNS(cars.id[slot], cars.lane[slot], cars.position[slot]);
+
+        c.speed = cars.speed[slot];
+        c.maxSpeed = cars.maxSpeed[slot];
+        c.traveledDistance = cars.traveledDistance[slot];
+        c.maxReachedSpeed = cars.maxReachedSpeed[slot];
+        return c;
     }
 
     public int getTraveledDistance() {
@@ -56,46 +74,27 @@ public class CarNS {
         return maxReachedSpeed;
     }
 
-    public void setMaxReachedSpeed(int newSpeed) {
-        if (maxReachedSpeed < newSpeed) {
-            maxReachedSpeed = newSpeed;
-        }
-    }
-
-    public void setLane(int lane) {
-        this.lane = lane;
-    }
-
     public int getLane() {
         return lane;
     }
 
-    public void setPosition(int newPosition) {
-        if (this.position + speed >= TrafficSimulation.ROAD_SIZE) {
-            traveledDistance += TrafficSimulation.ROAD_SIZE - this.position;
-            traveledDistance += newPosition;
-        } else {
-            traveledDistance += newPosition - this.position;
-        }
-
-        this.position = newPosition;
-    }
-
     public int getPosition() {
         return position;
     }
 
-    public Color getColor() {
-        return color;
+    public int getTypeCode() {
+        return type;
     }
 
+    /*
+    Output:
+        the symbol of the type of car: "S" (slow), "F" (fast) or "E" (broken)
+    */
     public String getType() {
-        switch (this.getClass().toString()) {
-            case "class nsSimulation.SlowCarNS":
-                return "S";
-            case "class nsSimulation.FastCarNS":
-                return "F";
-        }
+        if (type == RoadNS.TYPE_CAR_SLOW)
+            return "S";
+        if (type == RoadNS.TYPE_CAR_FAST)
+            return "F";
         return "E";
     }
 
@@ -104,54 +103,88 @@ public class CarNS {
         return "(" + getType() + " " + lane + "," + position + "," + speed + ") ";
     }
 
+    public static final int NO_LANE = -1;      // gap to the cars of a neighbour lane which does not exist
+
     /*
-     * This method implement the rules of changing lane and moving forward for car
-     */
-    public int adaptSpeed(SpeedDistance carFront, SpeedDistance carFrontNextLane, SpeedDistance carBehindNextLane) {
+    This method implement the rules of changing lane for car, the rules of moving forward
+    (moveForward()) are applied once all cars of the lane chose their lane (see RoadNS)
+    The rules of the paper (two lanes) are applied to both neighbour lanes of the car:
+    - asymmetric: the car overtakes on the left lane (lane + 1), and goes back to the
+      right lane (lane - 1) when it is not hindered on both lanes
+    - symmetric (for a car which stopped): the car changes to a neighbour lane with
+      more room in front, the one with the most room if both have (left on a tie)
+    Input:
+        config                      parameters of the run
+        lane, speed                 current state of the car
+        gapFront, speedFront        number of empty cells to the car in front on the same lane and its speed
+        gapFrontLeft                the same for the car in front on the left lane, seen from one cell behind
+        speedFrontLeft
+        gapBehindLeft               number of empty cells to the car behind on the left lane, seen from one cell ahead
+        gapFrontRight, ...          the same on the right lane
+        if there is no such car, speed is max_speed of the system and gap is Integer.MAX_VALUE
+        if there is no such lane, the gaps are NO_LANE
+    Output:
+        the new lane
+    */
+    public static int changeLane(SimulationConfig config, int lane, int speed, int gapFront, int speedFront,
+            int gapFrontLeft, int speedFrontLeft, int gapBehindLeft,
+            int gapFrontRight, int speedFrontRight, int gapBehindRight) {
 
         // Security rule
-        boolean goodGapToChange = (carBehindNextLane.getDistance() >= TrafficSimulation.MAX_SPEED_FAST_CAR && carFrontNextLane.getDistance() >= speed);
+        boolean goodGapToLeft = gapFrontLeft != NO_LANE && gapBehindLeft >= config.maxSpeedFastCar && gapFrontLeft >= speed;
+        boolean goodGapToRight = gapFrontRight != NO_LANE && gapBehindRight >= config.maxSpeedFastCar && gapFrontRight >= speed;
 
         // Rules to change lane
-        if (carFront.getDistance() > TrafficSimulation.DISTANCE_TO_LOOK_AHEAD) carFront.setSpeed(Integer.MAX_VALUE);
-        if (carFrontNextLane.getDistance() > TrafficSimulation.DISTANCE_TO_LOOK_AHEAD) carFrontNextLane.setSpeed(Integer.MAX_VALUE);
-
-        if (TrafficSimulation.APPLY_SYMMETRIC_RULE && speed == 0){
-            if (goodGapToChange && carFrontNextLane.getDistance() > carFront.getDistance()) {
-                lane = RoadNS.NUM_LANES - lane + 1;     // switch lane
+        if (gapFront > config.distanceToLookAhead) speedFront = Integer.MAX_VALUE;
+        if (gapFrontLeft > config.distanceToLookAhead) speedFrontLeft = Integer.MAX_VALUE;
+        if (gapFrontRight > config.distanceToLookAhead) speedFrontRight = Integer.MAX_VALUE;
+
+        if (config.applySymmetricRule && speed == 0){
+            boolean toLeft = goodGapToLeft && gapFrontLeft > gapFront;
+            boolean toRight = goodGapToRight && gapFrontRight > gapFront;
+            if (toLeft && (!toRight || gapFrontLeft >= gapFrontRight)) {
+                lane++;     // switch lane
+                if (TrafficSimulation.DEBUG>=10) System.out.print("Change lane. ");
+            } else if (toRight) {
+                lane--;     // switch lane
                 if (TrafficSimulation.DEBUG>=10) System.out.print("Change lane. ");
-            }            
+            }
         } else {
             
-            if (lane == RoadNS.RIGHT_LANE) {
-                if ((carFront.getSpeed() <= speed || carFrontNextLane.getSpeed() <= speed) && goodGapToChange) {
-                    lane = RoadNS.LEFT_LANE;     // switch lane
-                    if (TrafficSimulation.DEBUG>=10) System.out.print("Change to left lane. ");
-                }
-            } 
-
-            // split to make code easy to understand and maintain
-            if (lane == RoadNS.LEFT_LANE) {
-                if ((carFront.getSpeed() > (speed + TrafficSimulation.SLACK) && carFrontNextLane.getSpeed() > (speed + TrafficSimulation.SLACK)) && goodGapToChange) {
-                    lane = RoadNS.RIGHT_LANE;     // switch lane
-                    if (TrafficSimulation.DEBUG>=10) System.out.print("Change to right lane. ");
-                }
+            if ((speedFront <= speed || speedFrontLeft <= speed) && goodGapToLeft) {
+                lane++;     // switch lane
+                if (TrafficSimulation.DEBUG>=10) System.out.print("Change to left lane. ");
+            } else if ((speedFront > (speed + config.slack) && speedFrontRight > (speed + config.slack)) && goodGapToRight) {
+                lane--;     // switch lane
+                if (TrafficSimulation.DEBUG>=10) System.out.print("Change to right lane. ");
             }
         }
         
+        return lane;
+    }
+
+    /*
+    The rules of moving forward, they do not depend on the lane change: gapFront is the number of
+    empty cells to the car in front on the old lane (the same rules are applied to many cars at
+    once by VelocityKernel.moveForward())
+    Input:
+        dawdle      whether the car dawdles in this step if it moves, drawn with probability PROBABILITY_FLUCTUATION
+    Output:
+        the new speed
+    */
+    public static int moveForward(SimulationConfig config, int speed, int maxSpeed, int gapFront, boolean dawdle) {
+        
         // Rules to move forward - paper section VI-B
-        if (speed < maxSpeed) speed += TrafficSimulation.MAX_ACCELERATION;
+        if (speed < maxSpeed) speed += config.maxAcceleration;
 
-        if (speed > carFront.getDistance()) speed = carFront.getDistance();
+        if (speed > gapFront) speed = gapFront;
 
         if (speed >= 1) {
-            Random r = new Random();
-            if (r.nextDouble() < TrafficSimulation.PROBABILITY_FLUCTUATION) {
+            if (dawdle) {
                 speed--;
             }
         }
 
-        setMaxReachedSpeed(speed);
         return speed;
     }
 }
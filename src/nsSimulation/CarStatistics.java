@@ -0,0 +1,283 @@
+package nsSimulation;
+
+import java.util.Arrays;
+
+/*==============================================================================
+Measures of the cars of a ring per replica and per type of car (slow, fast,
+broken), kept up to date while the cars move (see RoadNS.getStatistics())
+- per type: number of cars, total traveled distance, max reached speed, best
+  and worst traveled distance of a car, and the number of car-steps at every
+  speed (mean speed and percentiles of the speeds)
+- the cars are counted by the segments of the road while they move, in
+  accumulators of their own (no lock), with the integer type of the car in the
+  store; a query sums the segments, so it costs the same whatever the number
+  of cars
+- the accumulators are laid out segment by segment, a cache line apart
+  (PADDING_KEYS), so the threads of a step never write the same line
+- the worst distance comes from a histogram of the distances of the cars: a
+  car moving from distance d to d + speed is taken from one bucket and put in
+  the other, the lowest non-empty bucket is found from the last one (the
+  distances never decrease on a ring); that cursor only moves at the end of a
+  step (stepDone(), on the thread of the road), the queries never write
+- the histograms are sized for the distance a run can reach (number of
+  iterations x max speed), a longer run grows them at the end of a step, never
+  while the cars move
+- the accumulators are rebuilt from the store when the cars or their measures
+  change outside a step (cars generated or restored, resetMeasures()); the
+  speeds are counted from the last rebuild
+==============================================================================*/
+
+public class CarStatistics {
+
+    public static final int NUM_TYPES = 3;              // RoadNS.TYPE_CAR_SLOW, TYPE_CAR_FAST, TYPE_CAR_BROKEN
+
+    private static final int NUM_SPEEDS = CompactLanes.MAX_SPEED + 1;
+    private static final int PADDING_KEYS = 16;         // unused keys after those of a segment: 64 bytes of ints or more
+    private static final int MIN_DISTANCES = 64;
+
+    private final int numSegments;
+    private final int segmentStride;                    // keys per segment, with the padding
+
+    // per (replica, type)
+    private final int[] numCars;
+    private final int[] worst;                          // lowest bucket which may hold a car, moved by stepDone() only
+
+    // per (segment, replica, type), see key()
+    private final long[] distance;
+    private final int[] maxSpeed;
+    private final int[] best;
+    private final long[] speedCount;                    // NUM_SPEEDS per key: number of car-steps at every speed
+    private final int[][] distanceCount;                // number of cars at every distance, summed over the segments (null for the padding)
+    private int maxDistance;                            // every car can move once without leaving the histograms
+
+    /*
+    Input:
+        maxDistance     the highest traveled distance expected, e.g. the iterations of a run x the max speed
+    */
+    CarStatistics(int replicas, int numSegments, int maxDistance) {
+        this.numSegments = numSegments;
+        segmentStride = replicas * NUM_TYPES + PADDING_KEYS;
+        numCars = new int[replicas * NUM_TYPES];
+        worst = new int[replicas * NUM_TYPES];
+        int keys = numSegments * segmentStride;
+        distance = new long[keys];
+        maxSpeed = new int[keys];
+        best = new int[keys];
+        speedCount = new long[keys * NUM_SPEEDS];
+        distanceCount = new int[keys][];
+        Arrays.fill(maxSpeed, -1);
+        Arrays.fill(best, -1);
+        this.maxDistance = Math.max(MIN_DISTANCES, maxDistance);
+        for (int k = 0; k < keys; k++) {
+            if (k % segmentStride < replicas * NUM_TYPES)
+                distanceCount[k] = new int[this.maxDistance + CompactLanes.MAX_SPEED + 1];
+        }
+    }
+
+    /*
+    Count the move of a car, called by the segment which moved it
+    Input:
+        type            the type of the car (RoadNS.TYPE_CAR_...)
+        oldDistance     its traveled distance before the move
+        speed           its new speed, the cells it drove
+    */
+    void carMoved(int segment, int replica, int type, int oldDistance, int speed) {
+        int k = key(segment, replica, type);
+        int newDistance = oldDistance + speed;
+        distance[k] += speed;
+        if (maxSpeed[k] < speed) maxSpeed[k] = speed;
+        if (best[k] < newDistance) best[k] = newDistance;
+        speedCount[k * NUM_SPEEDS + speed]++;
+
+        int[] counts = distanceCount[k];                // at least maxDistance + MAX_SPEED + 1 buckets
+        counts[oldDistance]--;
+        counts[newDistance]++;
+    }
+
+    /*
+    Move the cursors of the worst distances to the lowest bucket holding a car, and make room for the
+    next step in the histograms; called by the road once all segments moved their cars
+    */
+    void stepDone() {
+        int highest = 0;
+        for (int b : best) {
+            highest = Math.max(highest, b);
+        }
+        ensureDistance(highest);
+        for (int r = 0; r < worst.length; r++) {
+            if (numCars[r] == 0) continue;
+            while (countAt(r / NUM_TYPES, r % NUM_TYPES + 1, worst[r]) == 0) {
+                worst[r]++;
+            }
+        }
+    }
+
+    /*
+    Grow the histograms (outside of the move of the cars) so a car at a distance can still move
+    */
+    private void ensureDistance(int distance) {
+        if (distance <= maxDistance) return;
+        maxDistance = Math.max(2 * maxDistance, distance);
+        for (int k = 0; k < distanceCount.length; k++) {
+            if (distanceCount[k] != null)
+                distanceCount[k] = Arrays.copyOf(distanceCount[k], maxDistance + CompactLanes.MAX_SPEED + 1);
+        }
+    }
+
+    /*
+    Rebuild the accumulators of a replica from the cars of the store
+    Input:
+        first, last     the slots of the cars of the replica
+    */
+    void rebuild(VehicleStore cars, int replica, int first, int last) {
+        int highest = 0;
+        for (int slot = first; slot < last; slot++) {
+            highest = Math.max(highest, cars.traveledDistance[slot]);
+        }
+        ensureDistance(highest);
+        for (int segment = 0; segment < numSegments; segment++) {
+            for (int type = 1; type <= NUM_TYPES; type++) {
+                int k = key(segment, replica, type);
+                distance[k] = 0;
+                maxSpeed[k] = -1;
+                best[k] = -1;
+                Arrays.fill(speedCount, k * NUM_SPEEDS, (k + 1) * NUM_SPEEDS, 0);
+                Arrays.fill(distanceCount[k], 0);
+            }
+        }
+
+        // every car in the accumulators of the first segment
+        Arrays.fill(numCars, replica * NUM_TYPES, (replica + 1) * NUM_TYPES, 0);
+        Arrays.fill(worst, replica * NUM_TYPES, (replica + 1) * NUM_TYPES, Integer.MAX_VALUE);
+        for (int slot = first; slot < last; slot++) {
+            int type = cars.type[slot];
+            int r = replica * NUM_TYPES + type - 1;
+            int k = key(0, replica, type);
+            int d = cars.traveledDistance[slot];
+            numCars[r]++;
+            worst[r] = Math.min(worst[r], d);
+            distance[k] += d;
+            maxSpeed[k] = Math.max(maxSpeed[k], cars.maxReachedSpeed[slot]);
+            best[k] = Math.max(best[k], d);
+            distanceCount[k][d]++;
+        }
+    }
+
+    public int getNumCars(int replica, int type) {
+        return numCars[replica * NUM_TYPES + type - 1];
+    }
+
+    public long getTotalDistance(int replica, int type) {
+        long total = 0;
+        for (int segment = 0; segment < numSegments; segment++) {
+            total += distance[key(segment, replica, type)];
+        }
+        return total;
+    }
+
+    /*
+    Output:
+        the max speed reached by the cars of the type, -1 if none moved
+    */
+    public int getMaxReachedSpeed(int replica, int type) {
+        int max = -1;
+        for (int segment = 0; segment < numSegments; segment++) {
+            max = Math.max(max, maxSpeed[key(segment, replica, type)]);
+        }
+        return max;
+    }
+
+    /*
+    Output:
+        the highest traveled distance of a car of the type, -1 if there is no such car
+    */
+    public int getBestDistance(int replica, int type) {
+        int max = -1;
+        for (int segment = 0; segment < numSegments; segment++) {
+            max = Math.max(max, best[key(segment, replica, type)]);
+        }
+        return max;
+    }
+
+    /*
+    Output:
+        the lowest traveled distance of a car of the type, -1 if there is no such car
+    */
+    public int getWorstDistance(int replica, int type) {
+        int r = replica * NUM_TYPES + type - 1;
+        if (numCars[r] == 0) return -1;
+        int d = worst[r];
+        while (countAt(replica, type, d) == 0) {                        // between a rebuild and the next step
+            d++;
+        }
+        return d;
+    }
+
+    private int countAt(int replica, int type, int d) {
+        int count = 0;
+        for (int segment = 0; segment < numSegments; segment++) {
+            count += distanceCount[key(segment, replica, type)][d];
+        }
+        return count;
+    }
+
+    /*
+    Output:
+        the number of steps cars of the type drove at a speed, since the last rebuild
+    */
+    public long getCarSteps(int replica, int type, int speed) {
+        long count = 0;
+        for (int segment = 0; segment < numSegments; segment++) {
+            count += speedCount[key(segment, replica, type) * NUM_SPEEDS + speed];
+        }
+        return count;
+    }
+
+    /*
+    Output:
+        the mean speed of the cars of the type since the last rebuild, NaN if none moved
+    */
+    public double getMeanSpeed(int replica, int type) {
+        long steps = 0;
+        long sum = 0;
+        for (int speed = 0; speed < NUM_SPEEDS; speed++) {
+            long n = getCarSteps(replica, type, speed);
+            steps += n;
+            sum += n * speed;
+        }
+        return steps == 0 ? Double.NaN : sum / (double) steps;
+    }
+
+    /*
+    Input:
+        percentile      in [0, 100]
+    Output:
+        the lowest speed such that percentile % of the car-steps of the type were at most that fast, -1 if none moved
+    */
+    public int getSpeedPercentile(int replica, int type, double percentile) {
+        long[] counts = new long[NUM_SPEEDS];
+        long steps = 0;
+        for (int speed = 0; speed < NUM_SPEEDS; speed++) {
+            counts[speed] = getCarSteps(replica, type, speed);
+            steps += counts[speed];
+        }
+        if (steps == 0) return -1;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * steps));
+        long seen = 0;
+        for (int speed = 0; speed < NUM_SPEEDS; speed++) {
+            seen += counts[speed];
+            if (seen >= rank) return speed;
+        }
+        return NUM_SPEEDS - 1;
+    }
+
+    /*
+    Output:
+        the index of the accumulators of a segment, replica and type: segment-major, so the keys of two
+        segments are PADDING_KEYS apart or more
+    */
+    private int key(int segment, int replica, int type) {
+        return segment * segmentStride + replica * NUM_TYPES + type - 1;
+    }
+}
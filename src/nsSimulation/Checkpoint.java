@@ -0,0 +1,174 @@
+package nsSimulation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*==============================================================================
+Binary checkpoint of the state of a road, see RoadNS.saveCheckpoint() and
+RoadNS.restoreCheckpoint()
+- header (HEADER_SIZE bytes): MAGIC, VERSION, number of lanes, road size, number
+  of cars, seed, step, step where the measures started, number of cars passing
+  the end (version 1 had no number of lanes: 2 lanes)
+- then the columns of the vehicle store in slot order, 18 bytes per car:
+  ID, position, traveled distance (int), lane, speed, max speed, max reached
+  speed, type, broken down (byte)
+- the random numbers are a function of (seed, car, step), so the seed and the
+  step are the whole state of the random generator
+- the lanes are not saved, they are written again from the cars
+- a checkpoint is written to a temporary file which then replaces the old one,
+  so a crash while writing leaves the previous checkpoint intact
+- on load the columns are memory-mapped and copied in bulk
+==============================================================================*/
+
+final class Checkpoint {
+
+    static final int MAGIC = 0x4E393843;                // "N98C"
+    static final short VERSION = 2;
+    static final int HEADER_SIZE = 40;
+    static final int BYTES_PER_CAR = 3 * 4 + 6;
+
+    private static final int CHUNK_SIZE = 1 << 20;      // bytes written at once
+
+    private Checkpoint() {
+    }
+
+    static void save(RoadNS road, Path file) throws IOException {
+        VehicleStore cars = road.getVehicles();
+        int n = cars.size();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            buffer.putInt(MAGIC).putShort(VERSION).putShort((short) road.getConfig().numLanes);
+            buffer.putInt(road.getConfig().roadSize).putInt(n).putLong(road.getSeed());
+            buffer.putInt(road.getStep()).putInt(road.getMeasuresStartStep()).putInt(road.getNumCarsPassingEnd()).putInt(0);
+            buffer.flip();
+            writeFully(channel, buffer);
+
+            writeInts(channel, buffer, cars.id, n);
+            writeInts(channel, buffer, cars.position, n);
+            writeInts(channel, buffer, cars.traveledDistance, n);
+            writeBytes(channel, buffer, cars.lane, n);
+            writeBytes(channel, buffer, cars.speed, n);
+            writeBytes(channel, buffer, cars.maxSpeed, n);
+            writeBytes(channel, buffer, cars.maxReachedSpeed, n);
+            writeBytes(channel, buffer, cars.type, n);
+            buffer.clear();
+            for (int i = 0; i < n; i++) {
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    writeFully(channel, buffer);
+                    buffer.clear();
+                }
+                buffer.put((byte) (cars.brokenDown[i] ? 1 : 0));
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+            channel.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static RoadNS restore(SimulationConfig config, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException(file + " is not a checkpoint");
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC)
+                throw new IOException(file + " is not a checkpoint");
+            short version = header.getShort();
+            if (version != VERSION && version != 1)
+                throw new IOException(file + ": unsupported checkpoint version " + version);
+            int numLanes = header.getShort();
+            if (version == 1) numLanes = 2;
+            int roadSize = header.getInt();
+            int n = header.getInt();
+            long seed = header.getLong();
+            int step = header.getInt();
+            int measuresStartStep = header.getInt();
+            int numCarsPassingEnd = header.getInt();
+
+            if (numLanes != config.numLanes || roadSize != config.roadSize || n != config.getTotalCars())
+                throw new IllegalArgumentException(file + " holds a road of " + numLanes + " lanes, " + roadSize + " cells and " + n + " cars, the configuration has "
+                        + config.numLanes + " lanes, " + config.roadSize + " cells and " + config.getTotalCars() + " cars");
+            if (channel.size() != HEADER_SIZE + (long) n * BYTES_PER_CAR)
+                throw new IOException(file + " is truncated");
+
+            RoadNS road = new RoadNS(config, seed, false);
+            VehicleStore cars = road.getVehicles();
+            cars.setSize(n);
+
+            long offset = HEADER_SIZE;
+            offset = readInts(channel, offset, cars.id, n);
+            offset = readInts(channel, offset, cars.position, n);
+            offset = readInts(channel, offset, cars.traveledDistance, n);
+            offset = readBytes(channel, offset, cars.lane, n);
+            offset = readBytes(channel, offset, cars.speed, n);
+            offset = readBytes(channel, offset, cars.maxSpeed, n);
+            offset = readBytes(channel, offset, cars.maxReachedSpeed, n);
+            offset = readBytes(channel, offset, cars.type, n);
+            if (n > 0) {
+                MappedByteBuffer flags = channel.map(FileChannel.MapMode.READ_ONLY, offset, n);
+                for (int i = 0; i < n; i++) {
+                    cars.brokenDown[i] = flags.get(i) != 0;
+                }
+            }
+
+            road.restoreState(step, measuresStartStep, numCarsPassingEnd);
+            return road;
+        }
+    }
+
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] column, int n) throws IOException {
+        for (int from = 0; from < n; from += CHUNK_SIZE / 4) {
+            int length = Math.min(CHUNK_SIZE / 4, n - from);
+            buffer.clear();
+            buffer.asIntBuffer().put(column, from, length);
+            buffer.limit(length * 4);
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static void writeBytes(FileChannel channel, ByteBuffer buffer, int[] column, int n) throws IOException {
+        for (int from = 0; from < n; from += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, n - from);
+            buffer.clear();
+            for (int i = from; i < from + length; i++) {
+                buffer.put((byte) column[i]);
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+        }
+    }
+
+    private static long readInts(FileChannel channel, long offset, int[] column, int n) throws IOException {
+        if (n > 0) {
+            IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, offset, 4L * n).asIntBuffer();
+            ints.get(column, 0, n);
+        }
+        return offset + 4L * n;
+    }
+
+    private static long readBytes(FileChannel channel, long offset, int[] column, int n) throws IOException {
+        if (n > 0) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset, n);
+            for (int i = 0; i < n; i++) {
+                column[i] = bytes.get(i);
+            }
+        }
+        return offset + n;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
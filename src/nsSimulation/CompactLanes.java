@@ -0,0 +1,235 @@
+package nsSimulation;
+
+import java.util.Arrays;
+
+/*==============================================================================
+Compact encoding of all lanes of the road, as one matrix (lane x cell)
+- the lanes are numbered from 1 (the rightmost lane) to numLanes (the leftmost)
+- every array holds the rows of all lanes one after the other (row-major), each
+  row starting on a new word, so a lane is a contiguous range of every array
+  and there is no object per lane
+- the speed of the car on every cell takes one nibble (4 bits), 16 cells per long,
+  so speeds are limited to MAX_SPEED (the hex symbols of the road print)
+- an occupancy bitset tells which cells hold a car, the speed of an empty cell is
+  meaningless and never cleared
+- a summary bitset has one bit per non-empty word of the occupancy bitset, so a
+  search for the next car skips 64 empty cells per word and 4096 per summary word
+- about 0.63 byte per cell and lane instead of 4 for an int[] of speeds
+
+Writes to different words are independent: a segment of cells aligned on
+CELLS_PER_WORD can be written by its own thread, on all lanes. The summary is not
+maintained by set() and clear(), it is rebuilt by updateSummary() once all writes
+are done
+==============================================================================*/
+
+final class CompactLanes {
+
+    static final int MAX_SPEED = 15;
+    static final int CELLS_PER_WORD = 64;       // cells of one word of the occupancy bitset
+
+    private final int numLanes;
+    private final int size;                     // number of cells per lane
+    private final int speedWords;               // number of words of one lane in speeds, occupied and summary
+    private final int occupiedWords;
+    private final int summaryWords;
+    private final long[] speeds;                // 16 nibbles per long
+    private final long[] occupied;              // 1 bit per cell
+    private final long[] summary;               // 1 bit per word of occupied, set if the word is not 0
+    private final boolean[] empty;              // per lane: no car on the lane, as of the last updateSummary()
+
+    CompactLanes(int numLanes, int size) {
+        this.numLanes = numLanes;
+        this.size = size;
+        speedWords = (size + 15) >>> 4;
+        occupiedWords = (size + 63) >>> 6;
+        summaryWords = (occupiedWords + 63) >>> 6;
+        speeds = new long[numLanes * speedWords];
+        occupied = new long[numLanes * occupiedWords];
+        summary = new long[numLanes * summaryWords];
+        empty = new boolean[numLanes];
+        Arrays.fill(empty, true);
+    }
+
+    int numLanes() {
+        return numLanes;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isOccupied(int lane, int cell) {
+        return (occupied[(lane - 1) * occupiedWords + (cell >>> 6)] & (1L << cell)) != 0;
+    }
+
+    /*
+    Output:
+        the speed of the car on the cell of the lane, -1 if there is no car
+    */
+    int get(int lane, int cell) {
+        if (!isOccupied(lane, cell)) return -1;
+        return (int) (speeds[(lane - 1) * speedWords + (cell >>> 4)] >>> ((cell & 15) << 2)) & 0xF;
+    }
+
+    /*
+    Put a car with a given speed (0..MAX_SPEED) on a cell of a lane, replacing the one already there
+    */
+    void set(int lane, int cell, int speed) {
+        int shift = (cell & 15) << 2;
+        int w = (lane - 1) * speedWords + (cell >>> 4);
+        speeds[w] = (speeds[w] & ~(0xFL << shift)) | ((long) speed << shift);
+        occupied[(lane - 1) * occupiedWords + (cell >>> 6)] |= 1L << cell;
+    }
+
+    /*
+    Remove the cars on the cells [from, to) of all lanes
+    */
+    void clear(int from, int to) {
+        if (from >= to) return;
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> -to;
+        for (int row = 0; row < occupied.length; row += occupiedWords) {
+            if (first == last) {
+                occupied[row + first] &= ~(firstMask & lastMask);
+                continue;
+            }
+            occupied[row + first] &= ~firstMask;
+            for (int w = first + 1; w < last; w++) {
+                occupied[row + w] = 0;
+            }
+            occupied[row + last] &= ~lastMask;
+        }
+    }
+
+    /*
+    Add the cars of count cells of a lane of other lanes to cells of a lane of these ones,
+    e.g. the boundary cells of the roads of a network (see RoadNetwork)
+    A car already on a cell is kept if it is slower than the copied one
+    */
+    void copyCells(CompactLanes from, int fromLane, int fromCell, int lane, int cell, int count) {
+        for (int i = 0; i < count; i++) {
+            int speed = from.get(fromLane, fromCell + i);
+            if (speed == -1) continue;
+            int current = get(lane, cell + i);
+            if (current == -1 || speed < current) set(lane, cell + i, speed);
+        }
+    }
+
+    /*
+    Rebuild the summary after the writes, O(lanes * size / 64)
+    */
+    void updateSummary() {
+        for (int lane = 0; lane < numLanes; lane++) {
+            boolean laneEmpty = true;
+            int row = lane * occupiedWords;
+            for (int s = 0; s < summaryWords; s++) {
+                long bits = 0;
+                int firstWord = s << 6;
+                int numWords = Math.min(64, occupiedWords - firstWord);
+                for (int b = 0; b < numWords; b++) {
+                    if (occupied[row + firstWord + b] != 0) bits |= 1L << b;
+                }
+                summary[lane * summaryWords + s] = bits;
+                if (bits != 0) laneEmpty = false;
+            }
+            empty[lane] = laneEmpty;
+        }
+    }
+
+    /*==========================================================================
+    Searches on one lane, valid after updateSummary()
+    ==========================================================================*/
+
+    /*
+    Output:
+        the first occupied cell of the lane in [from, size), -1 if none
+    */
+    int nextOccupied(int lane, int from) {
+        if (from >= size) return -1;
+        int row = (lane - 1) * occupiedWords;
+        int w = from >>> 6;
+        long word = occupied[row + w] & (-1L << from);
+        if (word == 0) {
+            w = nextNonEmptyWord(lane, w + 1);
+            if (w == -1) return -1;
+            word = occupied[row + w];
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    /*
+    Output:
+        the last occupied cell of the lane in [0, from], -1 if none
+    */
+    int previousOccupied(int lane, int from) {
+        if (from < 0) return -1;
+        int row = (lane - 1) * occupiedWords;
+        int w = from >>> 6;
+        long word = occupied[row + w] & (-1L >>> (63 - (from & 63)));
+        if (word == 0) {
+            w = previousNonEmptyWord(lane, w - 1);
+            if (w == -1) return -1;
+            word = occupied[row + w];
+        }
+        return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+    }
+
+    /*
+    Output:
+        the next occupied cell of the lane ahead of a cell, searched cyclically and excluding
+        the cell itself (a lone car finds itself after a full round), -1 if the lane is empty
+    */
+    int nextOccupiedCyclic(int lane, int cell) {
+        if (empty[lane - 1]) return -1;
+        int found = nextOccupied(lane, cell + 1);
+        return found != -1 ? found : nextOccupied(lane, 0);
+    }
+
+    /*
+    Output:
+        the previous occupied cell of the lane behind a cell, searched like nextOccupiedCyclic()
+    */
+    int previousOccupiedCyclic(int lane, int cell) {
+        if (empty[lane - 1]) return -1;
+        int found = previousOccupied(lane, cell - 1);
+        return found != -1 ? found : previousOccupied(lane, size - 1);
+    }
+
+    private int nextNonEmptyWord(int lane, int from) {
+        if (from >= occupiedWords) return -1;
+        int row = (lane - 1) * summaryWords;
+        int s = from >>> 6;
+        long bits = summary[row + s] & (-1L << from);
+        while (bits == 0) {
+            if (++s == summaryWords) return -1;
+            bits = summary[row + s];
+        }
+        return (s << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    private int previousNonEmptyWord(int lane, int from) {
+        if (from < 0) return -1;
+        int row = (lane - 1) * summaryWords;
+        int s = from >>> 6;
+        long bits = summary[row + s] & (-1L >>> (63 - (from & 63)));
+        while (bits == 0) {
+            if (--s < 0) return -1;
+            bits = summary[row + s];
+        }
+        return (s << 6) + 63 - Long.numberOfLeadingZeros(bits);
+    }
+
+    /*
+    Same format as Arrays.toString() of the former int[] lanes: speed of every cell of a lane, -1 if no car
+    */
+    String toString(int lane) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(get(lane, i));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,38 @@
+package nsSimulation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*==============================================================================
+Writes the results as rows of simulations.csv, on the thread of the caller
+==============================================================================*/
+
+public class CsvResultSink implements ResultSink {
+
+    private final BufferedWriter writer;
+
+    public CsvResultSink(Path file) throws IOException {
+        this(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+    }
+
+    public CsvResultSink(Writer out) throws IOException {
+        writer = out instanceof BufferedWriter ? (BufferedWriter) out : new BufferedWriter(out);
+        writer.write(SimulationResult.CSV_HEADER);
+        writer.newLine();
+    }
+
+    @Override
+    public synchronized void write(SimulationResult result) throws IOException {
+        writer.write(result.toCsvRow());
+        writer.newLine();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
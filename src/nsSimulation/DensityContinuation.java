@@ -0,0 +1,199 @@
+package nsSimulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/*==============================================================================
+Density sweep run on one road: every point starts from the state of the road
+at the end of the previous point (numerical continuation), instead of cars
+scattered at random
+- the next point keeps the cars of the road where they are, with their speeds;
+  random slow and fast cars are removed, or new cars (standing) are added at
+  random free cells, to get the numbers of slow and fast cars of the point,
+  i.e. its density and fast car ratio; the broken car stays
+- the first point warms up from scattered cars for firstWarmUp steps, the
+  next ones only re-equilibrate for reequilibrationSteps steps, then every
+  point is measured as a run of its own (SimulationRunner) for the number of
+  iterations of its configuration: the road is close to its equilibrium, so
+  the measurement can be shorter than a run from scattered cars, which has to
+  outlast its transient; the warm-up of a point is the number of steps of the
+  road since the cars were scattered
+- the configurations of the points are made before the chain runs (they are
+  snapshots of the static parameters of TrafficSimulation, which the threads
+  of other chains must not touch)
+- walking the densities up then down (see loop()) gives the two branches of a
+  hysteresis loop: a jam which formed at a high density may survive when the
+  density decreases again, so the flow on the way down may be lower
+- a chain of points is one job (Callable), the chains of the repetitions and
+  of other parameters run in parallel; a chain whose thread is interrupted
+  (another chain failed) stops before its next point
+==============================================================================*/
+
+public class DensityContinuation implements Callable<List<SimulationResult>> {
+
+    private final SimulationConfig[] points;
+    private final int repetition;
+    private final int firstWarmUp;
+    private final int reequilibrationSteps;
+
+    /*
+    Input:
+        points                  the configurations of the points (with their densities), in the order they are run
+        repetition              the seed of every point is its configuration's seed of that repetition
+        firstWarmUp             steps before the first point is measured
+        reequilibrationSteps    steps before the next points are measured
+    */
+    public DensityContinuation(SimulationConfig[] points, int repetition, int firstWarmUp, int reequilibrationSteps) {
+        if (points.length == 0)
+            throw new IllegalArgumentException("A continuation has at least one density");
+        this.points = points.clone();
+        this.repetition = repetition;
+        this.firstWarmUp = firstWarmUp;
+        this.reequilibrationSteps = reequilibrationSteps;
+    }
+
+    /*
+    Run the points one after the other on the same road
+    Output:
+        the measures of every point, in the order of the densities
+    */
+    @Override
+    public List<SimulationResult> call() throws InterruptedException {
+        List<SimulationResult> results = new ArrayList<>(points.length);
+        RoadNS road = null;
+        for (int point = 0; point < points.length; point++) {
+            if (Thread.interrupted())
+                throw new InterruptedException("Continuation stopped before the density " + points[point].density);
+            SimulationConfig config = points[point];
+            long seed = config.getRunSeed(repetition);
+            road = road == null ? new RoadNS(config, seed) : road.withDensity(config, seed);
+
+            int steps = point == 0 ? firstWarmUp : reequilibrationSteps;
+            for (int step = 0; step < steps; step++) {
+                road.nextState();
+            }
+            road.resetMeasures();
+            results.add(new SimulationRunner(config, road).run(repetition));
+        }
+        return results;
+    }
+
+    public double[] getDensities() {
+        double[] densities = new double[points.length];
+        for (int point = 0; point < points.length; point++) {
+            densities[point] = points[point].density;
+        }
+        return densities;
+    }
+
+    /*
+    Output:
+        the densities in increasing order, then back down to the first one (the highest once only)
+    */
+    public static double[] loop(double[] densities) {
+        double[] up = densities.clone();
+        Arrays.sort(up);
+        double[] loop = Arrays.copyOf(up, 2 * up.length - 1);
+        for (int i = 0; i < up.length - 1; i++) {
+            loop[up.length + i] = up[up.length - 2 - i];
+        }
+        return loop;
+    }
+
+    /*
+    Output:
+        "up" if the density of a point is higher than that of the previous point (or it is the first), "down" otherwise
+    */
+    public static String branch(double[] densities, int point) {
+        return point == 0 || densities[point] > densities[point - 1] ? "up" : "down";
+    }
+
+    /*
+    The road of the next point, see RoadNS.withDensity()
+    */
+    static RoadNS changeDensity(RoadNS from, SimulationConfig config, long seed) {
+        SimulationConfig old = from.getConfig();
+        if (config.roadSize != old.roadSize || config.numLanes != old.numLanes)
+            throw new IllegalArgumentException("A road of " + old.numLanes + " lanes and " + old.roadSize + " cells cannot be continued with "
+                    + config.numLanes + " lanes and " + config.roadSize + " cells");
+
+        VehicleStore cars = from.getVehicles();
+        int n = cars.size();
+        int[] slowSlots = new int[n];
+        int[] fastSlots = new int[n];
+        int numSlow = 0, numFast = 0, numBroken = 0;
+        for (int slot = 0; slot < n; slot++) {
+            if (cars.type[slot] == RoadNS.TYPE_CAR_SLOW) slowSlots[numSlow++] = slot;
+            else if (cars.type[slot] == RoadNS.TYPE_CAR_FAST) fastSlots[numFast++] = slot;
+            else numBroken++;
+        }
+        int targetBroken = config.hasBrokenCar && config.numSlowCars > 0 ? 1 : 0;
+        if (numBroken != targetBroken)
+            throw new IllegalArgumentException("The broken car cannot be added or removed by a continuation: " + numBroken + " broken car(s), " + targetBroken + " wanted");
+        int targetSlow = config.numSlowCars - targetBroken;
+        int targetFast = config.numFastCars;
+
+        // remove random cars of a type down to its number
+        Random r = new Random(RandomStreams.split(seed, RandomStreams.STREAM_CONTINUATION));
+        boolean[] removed = new boolean[n];
+        removeRandom(slowSlots, numSlow, numSlow - targetSlow, removed, r);
+        removeRandom(fastSlots, numFast, numFast - targetFast, removed, r);
+
+        // the new cars at random free cells, the cells of the removed cars are free
+        int roadSize = config.roadSize;
+        boolean[] occupied = new boolean[config.numLanes * roadSize];
+        for (int slot = 0; slot < n; slot++) {
+            if (!removed[slot]) occupied[(cars.lane[slot] - RoadNS.RIGHT_LANE) * roadSize + cars.position[slot]] = true;
+        }
+        int newSlow = Math.max(0, targetSlow - numSlow);
+        int newFast = Math.max(0, targetFast - numFast);
+        int[] free = new int[occupied.length];
+        int numFree = 0;
+        for (int cell = 0; cell < occupied.length; cell++) {
+            if (!occupied[cell]) free[numFree++] = cell;
+        }
+        if (newSlow + newFast > numFree)
+            throw new IllegalArgumentException("No room for " + (newSlow + newFast) + " more cars: " + numFree + " free cells");
+        for (int i = 0; i < newSlow + newFast; i++) {                    // partial Fisher-Yates shuffle of the free cells
+            int j = i + r.nextInt(numFree - i);
+            int cell = free[j];
+            free[j] = free[i];
+            free[i] = cell;
+        }
+
+        // the kept cars first, then the new ones, numbered from 0 (the random streams of a car depend on its ID)
+        RoadNS road = new RoadNS(config, seed, false);
+        VehicleStore next = road.getVehicles();
+        int id = 0;
+        for (int slot = 0; slot < n; slot++) {
+            if (removed[slot]) continue;
+            int maxSpeed = cars.type[slot] == RoadNS.TYPE_CAR_FAST ? config.maxSpeedFastCar : config.maxSpeedSlowCar;
+            int added = next.add(id++, cars.lane[slot], cars.position[slot], Math.min(cars.speed[slot], maxSpeed), maxSpeed, cars.type[slot]);
+            next.brokenDown[added] = cars.brokenDown[slot];
+        }
+        for (int i = 0; i < newSlow + newFast; i++) {
+            int type = i < newSlow ? RoadNS.TYPE_CAR_SLOW : RoadNS.TYPE_CAR_FAST;
+            int lane = free[i] / roadSize + RoadNS.RIGHT_LANE;
+            next.add(id++, lane, free[i] % roadSize, 0, type == RoadNS.TYPE_CAR_FAST ? config.maxSpeedFastCar : config.maxSpeedSlowCar, type);
+        }
+        next.sortByLaneAndPosition();
+        road.restoreState(from.getStep(), from.getStep(), 0);
+        return road;
+    }
+
+    /*
+    Mark count random slots of a list as removed (partial Fisher-Yates shuffle of the list)
+    */
+    private static void removeRandom(int[] slots, int size, int count, boolean[] removed, Random r) {
+        for (int i = 0; i < count; i++) {
+            int j = i + r.nextInt(size - i);
+            int slot = slots[j];
+            slots[j] = slots[i];
+            slots[i] = slot;
+            removed[slot] = true;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package nsSimulation;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*==============================================================================
+Writes the windows of a DetectorSeries to two CSV files, one row per step and
+- lane and type of car: cars, occupancy (cars per cell), mean speed, flow, lane changes
+- detector and lane: cars over the detector, their mean speed, occupied at the end of the step
+The mean speeds are empty when there is no car
+==============================================================================*/
+
+public class DetectorCsvWriter implements DetectorSeries.Listener, Closeable {
+
+    public static final String LANES_HEADER = "step,lane,type,cars,occupancy,mean_speed,flow,lane_changes";
+    public static final String DETECTORS_HEADER = "step,cell,lane,cars,mean_speed,occupied";
+
+    private static final String[] TYPE_SYMBOLS = {"S", "F", "E"};     // as CarNS.getType()
+
+    private final BufferedWriter lanes;
+    private final BufferedWriter detectors;
+    private final StringBuilder row = new StringBuilder();
+
+    public DetectorCsvWriter(Path lanesFile, Path detectorsFile) throws IOException {
+        lanes = Files.newBufferedWriter(lanesFile, StandardCharsets.UTF_8);
+        detectors = Files.newBufferedWriter(detectorsFile, StandardCharsets.UTF_8);
+        lanes.write(LANES_HEADER);
+        lanes.newLine();
+        detectors.write(DETECTORS_HEADER);
+        detectors.newLine();
+    }
+
+    @Override
+    public void windowDone(DetectorSeries series, int firstStep, int numSteps) {
+        try {
+            for (int step = firstStep; step < firstStep + numSteps; step++) {
+                for (int lane = 1; lane <= series.getNumLanes(); lane++) {
+                    for (int type = 1; type <= DetectorSeries.NUM_TYPES; type++) {
+                        int cars = series.getCars(step, lane, type);
+                        row.setLength(0);
+                        row.append(step).append(',').append(lane).append(',').append(TYPE_SYMBOLS[type - 1]).append(',')
+                                .append(cars).append(',').append((double) cars / series.getRoadSize()).append(',');
+                        if (cars > 0) row.append((double) series.getSpeedSum(step, lane, type) / cars);
+                        row.append(',').append(series.getFlow(step, lane, type)).append(',').append(series.getLaneChanges(step, lane, type));
+                        lanes.append(row);
+                        lanes.newLine();
+                    }
+                }
+                for (int d = 0; d < series.getNumDetectors(); d++) {
+                    for (int lane = 1; lane <= series.getNumLanes(); lane++) {
+                        int cars = series.getDetectorCount(step, d, lane);
+                        row.setLength(0);
+                        row.append(step).append(',').append(series.getDetectorCell(d)).append(',').append(lane).append(',')
+                                .append(cars).append(',');
+                        if (cars > 0) row.append((double) series.getDetectorSpeedSum(step, d, lane) / cars);
+                        row.append(',').append(series.isDetectorOccupied(step, d, lane) ? 1 : 0);
+                        detectors.append(row);
+                        detectors.newLine();
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            lanes.close();
+        } finally {
+            detectors.close();
+        }
+    }
+}
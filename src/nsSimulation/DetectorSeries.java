@@ -0,0 +1,234 @@
+package nsSimulation;
+
+import java.util.Arrays;
+
+/*==============================================================================
+Time series recorded at every step of a road (see RoadNS.setDetectors())
+- per lane and per type of car (slow, fast, broken): number of cars, sum of
+  their speeds, flow (cars passing the end of the road) and lane changes (cars
+  which moved into the lane)
+- virtual loop detectors at given cells: per lane, number of cars which drove
+  over the cell in the step, sum of their speeds, and whether the cell is
+  occupied at the end of the step
+- the cars are counted by the segments of the road while they move, in scratch
+  counters of their own, which are summed after the step
+- the detectors cost nothing per car: a car which drove over a detector is at
+  most maxSpeed - 1 cells past it at the end of the step, with a speed higher
+  than its distance to the detector, so only these cells are looked at (two
+  cars ending on the same cell, which the rules may allow, are seen as one)
+- the steps are kept in preallocated ring buffers of windowLength rows; when a
+  window is full (or on flush()) it is handed to the listener, then overwritten
+==============================================================================*/
+
+public class DetectorSeries {
+
+    public static final int NUM_TYPES = 3;              // RoadNS.TYPE_CAR_SLOW, TYPE_CAR_FAST, TYPE_CAR_BROKEN
+
+    /*
+    Receives the steps of a full window, the getters are valid for these steps until the method returns
+    */
+    public interface Listener {
+        void windowDone(DetectorSeries series, int firstStep, int numSteps);
+    }
+
+    private final int[] detectorCells;                  // sorted, distinct
+    private final int windowLength;
+    private final Listener listener;
+
+    private int roadSize;
+    private int numLanes;
+    private int numSegments;
+    private int maxSpeed;                               // of all cars
+
+    // scratch counters of the current step, per (segment, lane, type): STAT_... next to each other
+    private static final int STAT_CARS = 0;
+    private static final int STAT_SPEED_SUM = 1;
+    private static final int STAT_FLOW = 2;
+    private static final int STAT_LANE_CHANGES = 3;
+    private static final int NUM_STATS = 4;
+    private long[] segmentStats;
+
+    // ring buffers, one row per step of the window
+    private int[] cars;                                 // per (row, lane, type)
+    private long[] speedSum;
+    private int[] flow;
+    private int[] laneChanges;
+    private int[] detectorCount;                        // per (row, detector, lane)
+    private long[] detectorSpeedSum;
+    private boolean[] detectorOccupied;
+
+    private int firstStep = 1;                          // first step of the current window
+    private int numSteps = 0;                           // number of steps of the current window recorded so far
+
+    /*
+    Input:
+        detectorCells   cells of the road with a detector, may be empty
+        windowLength    number of steps per window
+        listener        receives the windows
+    */
+    public DetectorSeries(int[] detectorCells, int windowLength, Listener listener) {
+        if (windowLength < 1)
+            throw new IllegalArgumentException("Window length must be positive: " + windowLength);
+        this.detectorCells = Arrays.stream(detectorCells).sorted().distinct().toArray();
+        this.windowLength = windowLength;
+        this.listener = listener;
+    }
+
+    /*
+    Allocate the counters for a road, called by RoadNS.setDetectors()
+    */
+    void attach(int roadSize, int numLanes, int numSegments, int maxSpeed) {
+        for (int cell : detectorCells) {
+            if (cell < 0 || cell >= roadSize)
+                throw new IllegalArgumentException("Detector outside the road: " + cell);
+        }
+        this.roadSize = roadSize;
+        this.numLanes = numLanes;
+        this.numSegments = numSegments;
+        this.maxSpeed = maxSpeed;
+
+        int laneStats = numLanes * NUM_TYPES;
+        int detectorStats = detectorCells.length * numLanes;
+        segmentStats = new long[numSegments * laneStats * NUM_STATS];
+
+        cars = new int[windowLength * laneStats];
+        speedSum = new long[windowLength * laneStats];
+        flow = new int[windowLength * laneStats];
+        laneChanges = new int[windowLength * laneStats];
+        detectorCount = new int[windowLength * detectorStats];
+        detectorSpeedSum = new long[windowLength * detectorStats];
+        detectorOccupied = new boolean[windowLength * detectorStats];
+    }
+
+    /*
+    Count a car which moved in a step, called by the segment which moved it
+    Input:
+        oldLane, lane       the lane before and after the step
+        type                the type of the car (RoadNS.TYPE_CAR_...)
+        position, speed     the cell before the step and the new speed
+    */
+    void carMoved(int segment, int oldLane, int lane, int type, int position, int speed) {
+        int k = ((segment * numLanes + lane - 1) * NUM_TYPES + type - 1) * NUM_STATS;
+        segmentStats[k + STAT_CARS]++;
+        segmentStats[k + STAT_SPEED_SUM] += speed;
+        segmentStats[k + STAT_FLOW] += position + speed >= roadSize ? 1 : 0;
+        segmentStats[k + STAT_LANE_CHANGES] += lane != oldLane ? 1 : 0;
+    }
+
+    /*
+    Sum the counters of the segments into the row of the step, called once all cars of the step moved
+    Input:
+        lanes       the lanes at the end of the step, for the occupancy of the detectors
+    */
+    void stepDone(CompactLanes lanes) {
+        int laneStats = numLanes * NUM_TYPES;
+        int detectorStats = detectorCells.length * numLanes;
+        int row = numSteps;
+
+        for (int i = 0; i < laneStats; i++) {
+            long carsOfKey = 0, speedOfKey = 0, flowOfKey = 0, laneChangesOfKey = 0;
+            for (int s = 0; s < numSegments; s++) {
+                int k = (s * laneStats + i) * NUM_STATS;
+                carsOfKey += segmentStats[k + STAT_CARS];
+                speedOfKey += segmentStats[k + STAT_SPEED_SUM];
+                flowOfKey += segmentStats[k + STAT_FLOW];
+                laneChangesOfKey += segmentStats[k + STAT_LANE_CHANGES];
+            }
+            cars[row * laneStats + i] = (int) carsOfKey;
+            speedSum[row * laneStats + i] = speedOfKey;
+            flow[row * laneStats + i] = (int) flowOfKey;
+            laneChanges[row * laneStats + i] = (int) laneChangesOfKey;
+        }
+        Arrays.fill(segmentStats, 0);
+
+        for (int d = 0; d < detectorCells.length; d++) {
+            for (int lane = 1; lane <= numLanes; lane++) {
+                int k = row * detectorStats + d * numLanes + lane - 1;
+                int detector = detectorCells[d];
+                int count = 0;
+                long speeds = 0;
+                // the cars of the cells [detector, detector + maxSpeed - 1] (cyclic) which came from behind the detector
+                for (int offset = 0; offset < maxSpeed; offset++) {
+                    int cell = detector + offset < roadSize ? detector + offset : detector + offset - roadSize;
+                    int speed = lanes.get(lane, cell);
+                    if (speed > offset) {
+                        count++;
+                        speeds += speed;
+                    }
+                }
+                detectorCount[k] = count;
+                detectorSpeedSum[k] = speeds;
+                detectorOccupied[k] = lanes.isOccupied(lane, detector);
+            }
+        }
+
+        numSteps++;
+        if (numSteps == windowLength) flush();
+    }
+
+    /*
+    Hand the steps recorded since the last window to the listener, e.g. at the end of a run
+    */
+    public void flush() {
+        if (numSteps == 0) return;
+        listener.windowDone(this, firstStep, numSteps);
+        firstStep += numSteps;
+        numSteps = 0;
+    }
+
+    /*==========================================================================
+    Getters, for a step of the current window (steps are numbered from 1)
+    ==========================================================================*/
+
+    public int getNumDetectors() {
+        return detectorCells.length;
+    }
+
+    public int getDetectorCell(int detector) {
+        return detectorCells[detector];
+    }
+
+    public int getNumLanes() {
+        return numLanes;
+    }
+
+    public int getRoadSize() {
+        return roadSize;
+    }
+
+    private int laneIndex(int step, int lane, int type) {
+        return ((step - firstStep) * numLanes + lane - 1) * NUM_TYPES + type - 1;
+    }
+
+    private int detectorIndex(int step, int detector, int lane) {
+        return ((step - firstStep) * detectorCells.length + detector) * numLanes + lane - 1;
+    }
+
+    public int getCars(int step, int lane, int type) {
+        return cars[laneIndex(step, lane, type)];
+    }
+
+    public long getSpeedSum(int step, int lane, int type) {
+        return speedSum[laneIndex(step, lane, type)];
+    }
+
+    public int getFlow(int step, int lane, int type) {
+        return flow[laneIndex(step, lane, type)];
+    }
+
+    public int getLaneChanges(int step, int lane, int type) {
+        return laneChanges[laneIndex(step, lane, type)];
+    }
+
+    public int getDetectorCount(int step, int detector, int lane) {
+        return detectorCount[detectorIndex(step, detector, lane)];
+    }
+
+    public long getDetectorSpeedSum(int step, int detector, int lane) {
+        return detectorSpeedSum[detectorIndex(step, detector, lane)];
+    }
+
+    public boolean isDetectorOccupied(int step, int detector, int lane) {
+        return detectorOccupied[detectorIndex(step, detector, lane)];
+    }
+}
@@ -0,0 +1,145 @@
+package nsSimulation;
+
+/*==============================================================================
+Decides the length of a run from its own statistics (SimulationConfig.adaptiveRunLength)
+- the steps are grouped in windows of SimulationConfig.equilibriumWindow steps,
+  with the mean flow (cars per cell and per step, see SimulationRunner) and the
+  mean speed of every window; a window is made of SUB_BATCHES sub-batches, the
+  noise of its means is the standard error of the means of its sub-batches
+  (the steps are correlated, their own standard error would be too small)
+- warm-up: it ends when the means of a window are those of the previous window,
+  within the tolerance plus twice the noise of the two means; the transient is
+  then discarded (RoadNS.resetMeasures())
+- measurement: the windows are batches, it stops once the standard error of
+  the mean of the batches is below the tolerance (relative) for both measures,
+  after at least MIN_MEASUREMENT_WINDOWS windows (the standard error of a few
+  batches is itself too noisy to be trusted)
+- the number of iterations of the configuration stays the budget: the warm-up
+  is ended after half of it, the measurement after the rest
+==============================================================================*/
+
+final class EquilibriumDetector {
+
+    static final int CONTINUE = 0;
+    static final int WARM_UP_DONE = 1;                  // discard the transient, start the measures
+    static final int CONVERGED = 2;                     // the measures are precise enough, stop
+
+    static final int MIN_MEASUREMENT_WINDOWS = 10;
+    static final int SUB_BATCHES = 10;                  // per window
+
+    private final int subBatch;                         // steps per sub-batch
+    private final int subBatchesPerWindow;
+    private final double tolerance;
+    private final int maxWarmUp;                        // 0 for no limit
+
+    private boolean warmingUp = true;
+    private int steps = 0;                              // steps of the current phase
+
+    // current sub-batch: sums over its steps
+    private int stepsInSubBatch = 0;
+    private double subBatchFlow, subBatchSpeed;
+
+    // current window: sums over the means of its sub-batches
+    private int subBatchesInWindow = 0;
+    private double flowSum, flowSquares, speedSum, speedSquares;
+
+    // previous window (warm-up)
+    private double previousFlow = Double.NaN, previousFlowError, previousSpeed, previousSpeedError;
+
+    // batch means (measurement)
+    private int numBatches = 0;
+    private double batchFlowSum, batchFlowSquares, batchSpeedSum, batchSpeedSquares;
+
+    EquilibriumDetector(SimulationConfig config) {
+        int window = Math.max(1, config.equilibriumWindow);
+        subBatchesPerWindow = Math.min(SUB_BATCHES, window);
+        subBatch = window / subBatchesPerWindow;                        // the window is rounded down to whole sub-batches
+        tolerance = config.equilibriumTolerance;
+        maxWarmUp = config.numberOfIterations / 2;
+    }
+
+    /*
+    Input:
+        flow        cars per cell in the step (on a ring, all cars driven cells / road size)
+        meanSpeed   mean speed of the cars in the step
+    Output:
+        CONTINUE, WARM_UP_DONE or CONVERGED
+    */
+    int stepDone(double flow, double meanSpeed) {
+        steps++;
+        stepsInSubBatch++;
+        subBatchFlow += flow;
+        subBatchSpeed += meanSpeed;
+        if (stepsInSubBatch == subBatch) {
+            double f = subBatchFlow / subBatch;
+            double s = subBatchSpeed / subBatch;
+            subBatchesInWindow++;
+            flowSum += f;
+            flowSquares += f * f;
+            speedSum += s;
+            speedSquares += s * s;
+            stepsInSubBatch = 0;
+            subBatchFlow = subBatchSpeed = 0;
+        }
+        if (subBatchesInWindow < subBatchesPerWindow) {
+            return warmingUp && maxWarmUp > 0 && steps >= maxWarmUp ? endWarmUp() : CONTINUE;
+        }
+
+        double windowFlow = flowSum / subBatchesPerWindow;
+        double windowSpeed = speedSum / subBatchesPerWindow;
+        double flowError = standardError(flowSum, flowSquares, subBatchesPerWindow);
+        double speedError = standardError(speedSum, speedSquares, subBatchesPerWindow);
+        subBatchesInWindow = 0;
+        flowSum = flowSquares = speedSum = speedSquares = 0;
+
+        if (warmingUp) {
+            boolean stable = !Double.isNaN(previousFlow)
+                    && close(windowFlow, flowError, previousFlow, previousFlowError)
+                    && close(windowSpeed, speedError, previousSpeed, previousSpeedError);
+            previousFlow = windowFlow;
+            previousFlowError = flowError;
+            previousSpeed = windowSpeed;
+            previousSpeedError = speedError;
+            return stable || (maxWarmUp > 0 && steps >= maxWarmUp) ? endWarmUp() : CONTINUE;
+        }
+
+        numBatches++;
+        batchFlowSum += windowFlow;
+        batchFlowSquares += windowFlow * windowFlow;
+        batchSpeedSum += windowSpeed;
+        batchSpeedSquares += windowSpeed * windowSpeed;
+        if (numBatches < MIN_MEASUREMENT_WINDOWS) return CONTINUE;
+
+        boolean flowConverged = standardError(batchFlowSum, batchFlowSquares, numBatches) <= tolerance * Math.abs(batchFlowSum / numBatches);
+        boolean speedConverged = standardError(batchSpeedSum, batchSpeedSquares, numBatches) <= tolerance * Math.abs(batchSpeedSum / numBatches);
+        return flowConverged && speedConverged ? CONVERGED : CONTINUE;
+    }
+
+    boolean isWarmingUp() {
+        return warmingUp;
+    }
+
+    private int endWarmUp() {
+        warmingUp = false;
+        steps = 0;
+        stepsInSubBatch = 0;
+        subBatchFlow = subBatchSpeed = 0;
+        subBatchesInWindow = 0;
+        flowSum = flowSquares = speedSum = speedSquares = 0;
+        return WARM_UP_DONE;
+    }
+
+    private boolean close(double mean, double error, double previousMean, double previousError) {
+        return Math.abs(mean - previousMean) <= tolerance * Math.abs(previousMean) + 2 * Math.sqrt(error * error + previousError * previousError);
+    }
+
+    /*
+    standard error of the mean of n values given their sum and the sum of their squares
+    */
+    private static double standardError(double sum, double squares, int n) {
+        if (n < 2) return 0;
+        double mean = sum / n;
+        double variance = Math.max(0, (squares - n * mean * mean) / (n - 1));
+        return Math.sqrt(variance / n);
+    }
+}
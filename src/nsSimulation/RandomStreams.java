@@ -0,0 +1,74 @@
+package nsSimulation;
+
+/*==============================================================================
+Counter-based random numbers, built on the SplitMix64 mixing function (the one
+of java.util.SplittableRandom)
+- every run has a master seed, every car has its own streams derived from the
+  seed and the ID of the car
+- the n-th number of a stream is a pure function of (seed, stream, n): there is
+  no state to share or to synchronise, and a car gets the same numbers whatever
+  the order in which the cars are updated, the number of segments or threads
+==============================================================================*/
+
+final class RandomStreams {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    // streams of a run which do not belong to a car
+    static final long STREAM_GENERATION = -1;         // initial positions, lanes, types and speeds of the cars
+    static final long STREAM_SWEEP = -2;              // seeds of the runs of a sweep
+    static final long STREAM_NETWORK = -3;            // seeds of the links and streams of the nodes of a RoadNetwork
+    static final long STREAM_CONTINUATION = -4;       // cars removed and added when a road is continued at another density
+
+    // streams of a car: stream = NUM_CAR_STREAMS * ID + one of these
+    static final int NUM_CAR_STREAMS = 2;
+    static final int CAR_STREAM_DAWDLE = 0;
+    static final int CAR_STREAM_BREAK_DOWN = 1;
+
+    private RandomStreams() {
+    }
+
+    /*
+    The SplitMix64 finalizer, a bijection which scatters consecutive inputs over 64 bits
+    */
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /*
+    Derive the seed of an independent stream from a seed
+    */
+    static long split(long seed, long stream) {
+        return mix64(seed + (stream + 1) * GOLDEN_GAMMA);
+    }
+
+    /*
+    The n-th random 64 bits of a stream
+    */
+    static long next(long streamSeed, long counter) {
+        return mix64(streamSeed + (counter + 1) * GOLDEN_GAMMA);
+    }
+
+    /*
+    Number to compare with the 53 high bits of next(), so that the comparison is true with a given probability
+    */
+    static long threshold(double probability) {
+        if (probability <= 0) return 0;
+        if (probability >= 1) return 1L << 53;
+        return (long) (probability * (1L << 53));
+    }
+
+    static boolean nextBoolean(long streamSeed, long counter, long threshold) {
+        return (next(streamSeed, counter) >>> 11) < threshold;
+    }
+
+    static float nextFloat(long streamSeed, long counter) {
+        return (next(streamSeed, counter) >>> 40) * 0x1.0p-24f;
+    }
+
+    static long carStream(long seed, int carID, int carStream) {
+        return split(seed, (long) NUM_CAR_STREAMS * carID + carStream);
+    }
+}
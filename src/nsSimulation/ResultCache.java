@@ -0,0 +1,274 @@
+package nsSimulation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/*==============================================================================
+Results of past runs kept on disk, so a sweep only runs what it never ran
+- a run is identified by the parameters its outcome depends on
+  (SimulationConfig.outcomeParameters(): e.g. the max speed of fast cars is not
+  one of them without fast car on a single lane) and its seed, so the runs of a
+  grid which differ only by such parameters are run once
+- the cache of a version of the code is the file results-<code version>.bin of
+  the cache directory: the code version is a hash of the classes which compute
+  the results (CODE_CLASSES), a change of the rules starts an empty cache
+- the file starts with a header (MAGIC, VERSION, record size), then one record
+  per run: the 16 first bytes of the SHA-256 of its identity, then the result
+  (SimulationResult.writeTo()); records are appended as the runs finish, under
+  the lock of the file (JVMs sharing a cache, see ShardedSweep), a truncated
+  last record (the JVM died while writing it) is dropped
+- a result found in the cache gets the parameters of the run it is asked for
+  (SimulationResult.forRun()), so its row is the row that run would give
+- the seeds of the runs come from the master seed of the sweep, which is part
+  of the key: a sweep only finds the runs of its master seed; the cache
+  directory keeps the master seed of its first sweep (masterSeed(),
+  master-seed.txt) so a sweep with another one can tell which seed to set
+==============================================================================*/
+
+public class ResultCache {
+
+    public static final int MAGIC = 0x4E39384B;                 // "N98K"
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 4 + 2 + 2;
+
+    private static final int KEY_SIZE = 16;
+    private static final int RECORD_SIZE = KEY_SIZE + SimulationResult.RECORD_SIZE;
+    private static final String MASTER_SEED = "master-seed.txt";
+
+    // the classes whose code determines the results of a run
+    private static final String[] CODE_CLASSES = {"RoadNS", "CarNS", "FastCarNS", "SlowCarNS", "BrokenCarNS", "VehicleStore",
+        "CompactLanes", "VelocityKernel", "RandomStreams", "SegmentTask", "SimulationRunner", "CarStatistics", "EquilibriumDetector",
+        "SimulationConfig", "SimulationResult", "ResultCache"};
+
+    private static String codeVersion = null;
+
+    private final Path file;
+    private final Map<String, SimulationResult> results = new HashMap<>();
+    private FileChannel channel = null;                 // opened by the first put()
+    private int hits = 0;
+    private int misses = 0;
+
+    /*
+    Open the cache of the current code version in a directory, created if needed
+    */
+    public ResultCache(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        file = directory.resolve("results-" + codeVersion() + ".bin");
+        if (Files.exists(file)) load();
+    }
+
+    /*
+    Output:
+        the result of a run, null if it is not in the cache
+    */
+    public synchronized SimulationResult get(SimulationConfig config, int repetition) {
+        long seed = config.getRunSeed(repetition);
+        SimulationResult result = results.get(key(config, seed));
+        if (result == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return result.forRun(config, repetition, seed);
+    }
+
+    /*
+    Add the result of a run, written to the file at once
+    */
+    public synchronized void put(SimulationConfig config, SimulationResult result) throws IOException {
+        String key = key(config, result.seed);
+        if (results.containsKey(key)) return;
+        if (channel == null) open();
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(hexToBytes(key));
+        result.writeTo(record);
+        record.flip();
+        synchronized (ResultCache.class) {                              // a JVM may hold the lock of a file once only
+            FileLock lock = channel.lock();
+            try {
+                writeFully(record);
+            } finally {
+                lock.release();
+            }
+        }
+        results.put(key, result);
+    }
+
+    public synchronized void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /*
+    number of runs found, and not found, by get()
+    */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /*
+    The master seed of the first sweep of a cache directory: the one kept in the directory, or
+    defaultSeed which is kept for the next sweeps if the directory has none yet; it is only a hint,
+    the runs of a sweep with another seed are still cached (under their own keys)
+    */
+    public static long masterSeed(Path directory, long defaultSeed) throws IOException {
+        Files.createDirectories(directory);
+        synchronized (ResultCache.class) {
+            try (FileChannel seedFile = FileChannel.open(directory.resolve(MASTER_SEED),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = seedFile.lock();                        // against a JVM writing it at the same time
+                try {
+                    ByteBuffer text = ByteBuffer.allocate((int) seedFile.size());
+                    while (text.hasRemaining()) {
+                        if (seedFile.read(text) == -1) break;
+                    }
+                    String stored = new String(text.array(), StandardCharsets.UTF_8).trim();
+                    if (!stored.isEmpty())
+                        return Long.parseLong(stored);
+                    seedFile.write(ByteBuffer.wrap((defaultSeed + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+                    return defaultSeed;
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /*
+    Output:
+        the identity of a run in the cache, the same for runs with the same outcome
+    */
+    static String key(SimulationConfig config, long seed) {
+        return toHex(sha256(config.outcomeParameters() + ";seed=" + seed), KEY_SIZE);
+    }
+
+    private static String toHex(byte[] bytes, int length) {
+        StringBuilder sb = new StringBuilder(2 * length);
+        for (int i = 0; i < length; i++) {
+            sb.append(String.format("%02x", bytes[i]));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] hexToBytes(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    /*
+    Read the records of the file, and drop a truncated last record
+    */
+    private void load() throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length == 0) return;                                  // the header is written by the first put()
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getShort() != VERSION || buffer.getShort() != RECORD_SIZE)
+            throw new IOException(file + " is not a result cache of this version");
+
+        int numRecords = (bytes.length - HEADER_SIZE) / RECORD_SIZE;
+        byte[] key = new byte[KEY_SIZE];
+        for (int i = 0; i < numRecords; i++) {
+            buffer.get(key);
+            results.put(toHex(key, KEY_SIZE), SimulationResult.readFrom(buffer));
+        }
+
+        if (HEADER_SIZE + numRecords * RECORD_SIZE < bytes.length) {
+            try (FileChannel repair = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                synchronized (ResultCache.class) {
+                    FileLock lock = repair.lock();                      // not a record being written by another JVM
+                    try {
+                        long size = repair.size();
+                        repair.truncate(size - (size - HEADER_SIZE) % RECORD_SIZE);
+                    } finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+    Open the file to append records, after writing its header if it is new
+    */
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        synchronized (ResultCache.class) {
+            FileLock lock = channel.lock();
+            try {
+                if (channel.size() == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.putInt(MAGIC).putShort(VERSION).putShort((short) RECORD_SIZE).flip();
+                    writeFully(header);
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /*
+    Output:
+        the version of the code computing the results, a hash of its classes
+    */
+    public static synchronized String codeVersion() throws IOException {
+        if (codeVersion != null) return codeVersion;
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[8192];
+        for (String name : CODE_CLASSES) {
+            try (InputStream in = ResultCache.class.getResourceAsStream(name + ".class")) {
+                if (in == null)
+                    throw new IOException("Class file of " + name + " not found, cannot tell the version of the code");
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, n);
+                }
+            }
+        }
+        codeVersion = toHex(digest.digest(), 8);
+        return codeVersion;
+    }
+
+    private static byte[] sha256(String text) {
+        return newDigest().digest(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);                        // every JVM has SHA-256
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package nsSimulation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/*==============================================================================
+Converts a file of BinaryResultSink to the column layout of simulations.csv
+- the rows are in the order of the runs (the grid order of the sweep), not in
+  the order the runs finished and were written
+Usage: java nsSimulation.ResultConverter simulations.bin simulations.csv
+==============================================================================*/
+
+public class ResultConverter {
+
+    private static final int RECORDS_PER_READ = 4096;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: ResultConverter <binary results> <csv file>");
+            return;
+        }
+        int rows = binaryToCsv(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println(rows + " rows written to " + args[1]);
+    }
+
+    /*
+    Input:
+        binary      a file written by BinaryResultSink
+        csv         the file to create
+    Output:
+        the number of rows written
+    */
+    public static int binaryToCsv(Path binary, Path csv) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(binary, StandardOpenOption.READ)) {
+
+            ByteBuffer header = ByteBuffer.allocate(BinaryResultSink.HEADER_SIZE);
+            readFully(channel, header);
+            header.flip();
+            if (header.getInt() != BinaryResultSink.MAGIC)
+                throw new IOException(binary + " is not a result file");
+            short version = header.getShort();
+            short recordSize = header.getShort();
+            if (version != BinaryResultSink.VERSION || recordSize != BinaryResultSink.RECORD_SIZE)
+                throw new IOException(binary + ": unsupported version " + version + " (record size " + recordSize + ")");
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RECORDS_PER_READ * BinaryResultSink.RECORD_SIZE);
+            while (channel.read(buffer) != -1 || buffer.position() > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= BinaryResultSink.RECORD_SIZE) {
+                    int run = buffer.getInt();
+                    records.add(new Record(run, SimulationResult.readFrom(buffer)));
+                }
+                if (buffer.hasRemaining() && channel.position() == channel.size())
+                    throw new EOFException(binary + ": truncated record at the end of the file");
+                buffer.compact();
+            }
+        }
+
+        records.sort(Comparator.comparingInt((Record r) -> r.run));           // stable: the runs of equal index stay in file order
+        try (CsvResultSink sink = new CsvResultSink(csv)) {
+            for (Record record : records) {
+                sink.write(record.result);
+            }
+        }
+        return records.size();
+    }
+
+    private static final class Record {
+        final int run;
+        final SimulationResult result;
+
+        Record(int run, SimulationResult result) {
+            this.run = run;
+            this.result = result;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1)
+                throw new EOFException("Unexpected end of the result file");
+        }
+    }
+}
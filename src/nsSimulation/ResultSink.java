@@ -0,0 +1,22 @@
+package nsSimulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/*==============================================================================
+Destination of the results of the runs of a sweep
+- write() may be called from several threads at the same time
+- a result may come with the index of its run in the sweep (the order of
+  SweepExecutor.add()), a sink may use it to keep the results in that order
+  whatever the order the runs finish
+- close() is called once all results were written, it flushes everything
+==============================================================================*/
+
+public interface ResultSink extends Closeable {
+
+    void write(SimulationResult result) throws IOException;
+
+    default void write(int run, SimulationResult result) throws IOException {
+        write(result);
+    }
+}
@@ -5,214 +5,731 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 
 /*==============================================================================
 Implement NS model based on paper Two-lane traffic rules for cellular Automata
+- the road has SimulationConfig.numLanes lanes, from RIGHT_LANE (1) to the left,
+  the rules of the paper are applied to both neighbour lanes of every car
+- a step reads the lanes of the current state and writes the helper lanes
+- the lanes are compact (see CompactLanes): the cars ahead and behind are found
+  by skipping whole words of empty cells in the occupancy bitsets
+- the ring is split in segments of consecutive cells (SimulationConfig.stepSegments),
+  every phase of a step runs on all segments in parallel
+- every random number is a function of the seed of the run, the ID of the car
+  and the step (see RandomStreams), so a run is reproduced from its seed and the
+  result does not depend on the number of segments
+- the road is a ring, unless it is an open road of a RoadNetwork: then the cars
+  passing the end leave the road, and the cars ahead of the end and behind the
+  start are seen in boundary cells filled by the network before every step
+- a ring may hold several replicas: independent runs of the same configuration
+  with their own seeds, advanced in lockstep (see RoadNS(config, seeds)); the
+  lanes of replica r are the rows r * numLanes + 1 .. (r + 1) * numLanes of the
+  lanes and of the store, so a step is one pass over the cars of all replicas,
+  and every replica evolves exactly as the run of its seed alone
 *==============================================================================*/
 
-public class RoadNS {
+public class RoadNS implements SegmentTask.Segmented {
 
-    public static int NUM_LANES = 2;
-    public static int RIGHT_LANE = 1;
-    public static int LEFT_LANE = 2;
+    public static int RIGHT_LANE = 1;                   // the rightmost lane, the one to the left of lane L is L + 1
     
     public static int NUM_TYPE_CAR = 2;
     public static int TYPE_CAR_SLOW = 1;
     public static int TYPE_CAR_FAST = 2;
+    public static int TYPE_CAR_BROKEN = 3;              // counted as a slow car when generating cars
     
-    private int numCarsPassingEnd = 0;                // number of cars passing the end of the segment to verify with result in the paper
+    // phases of a step, see nextState()
+    private static final int PHASE_DRAW = 0;
+    private static final int PHASE_MOVE = 1;
+    private static final int PHASE_WRITE = 2;
+    
+    private final SimulationConfig config;            // parameters of the run
+    
+    private final int[] numCarsPassingEnd;            // per replica: number of cars passing the end of the segment to verify with result in the paper
             
-    private ArrayList<CarNS> cars;                // contains cars on the road
+    private VehicleStore cars;                  // contains cars on the road, sorted by lane and position
 
-    private int[] rightLane;                    // values: current speed of car (or -1 if no car)
-    private int[] leftLane;
-
-    private int[] helperRight;
-    private int[] helperLeft;
+    private final int numLanes;
+    private final int replicas;
+    private final int numRows;                  // lanes of all replicas in the lanes and the store
+    private CompactLanes lanes;                 // values: current speed of car (or -1 if no car)
+    private CompactLanes helperLanes;           // next state, swapped with the lanes at the end of a step
+    
+    private final long[] seeds;                 // per replica: master seed of the run, all random numbers are derived from it
+    private int step = 0;                       // number of steps done so far, the counter of the random streams
+    private final int[] measuresStartStep;      // per replica: step from which the distances and the passing cars are counted
+    private final long dawdleThreshold;         // see RandomStreams.threshold()
+    private final int carsPerReplica;
+    private final long[] dawdleMask;            // per replica and car ID, one bit: the car dawdles in this step (if it moves)
+    
+    // per slot of the store, filled by the lane change of the cars and read by the rules to move forward
+    private int[] nextLane = new int[0];
+    private int[] nextGap = new int[0];         // empty cells ahead on the old lane (the rules to move forward look there)
+    private int[] nextDawdle = new int[0];      // 1 if the car dawdles, 0 otherwise
+    
+    // segments of the road
+    private final ForkJoinPool pool;            // null if the road is updated by a single segment
+    private final int numSegments;
+    private final int segmentLength;            // number of cells per segment, a multiple of CompactLanes.CELLS_PER_WORD; the last one may be shorter
+    private final int[] numCarsPassingEndPerSegment;    // per segment and replica
+    private final long[] distancePerSegment;    // cells driven by the cars of every segment and replica in the step
+    private final int[] lastStepPassingEnd;     // per replica: number of cars passing the end in the last step
+    private final long[] lastStepDistance;      // per replica: cells driven by all cars in the last step
+    private final int[] laneChangesPerSegment;  // cars of every segment (all replicas) which changed lane in the step
+    private final long[] scanPerSegment;        // empty cells ahead of the cars of every segment, see getLastStepScanLength()
+    private int lastStepLaneChanges = 0;
+    private long lastStepScan = 0;
+    
+    private DetectorSeries detectors;           // time series recorded at every step, null if none
+    private final CarStatistics statistics;     // measures per replica and type of car, null for an open road
+    
+    // open road of a network, see RoadNetwork (null or unused for a ring)
+    private final int firstCarID;               // the IDs of the generated cars start there
+    private final CompactLanes aheadCells;      // the first cells of the next roads, seen from the end of the road
+    private final CompactLanes behindCells;     // the last cells of the previous roads, seen from the start of the road
+    private final int[][] exitSlots;            // per segment: slots of the cars which passed the end in the step
+    private final int[] numExits;
     
     
-    public RoadNS(){
+    public RoadNS(SimulationConfig config){
+        this(config, new Random().nextLong());
+    }
+    
+    /*
+    Create a road whose initial state and evolution only depend on a given seed
+    */
+    public RoadNS(SimulationConfig config, long seed){
+        this(config, seed, true);
+    }
+    
+    /*
+    Create a road, with its cars or empty (the cars of a checkpoint are restored in it, see Checkpoint)
+    */
+    RoadNS(SimulationConfig config, long seed, boolean generate){
+        this(config, new long[] {seed}, generate, 0, 0);
+    }
+    
+    /*
+    Create a ring of several replicas of the configuration, advanced in lockstep
+    Input:
+        seeds       the seed of every replica, replica r evolves as new RoadNS(config, seeds[r])
+    */
+    public RoadNS(SimulationConfig config, long[] seeds){
+        this(config, seeds, true, 0, 0);
+    }
+    
+    RoadNS(SimulationConfig config, long seed, boolean generate, int firstCarID, int boundaryCells){
+        this(config, new long[] {seed}, generate, firstCarID, boundaryCells);
+    }
+    
+    /*
+    Create a ring, or an open road of a network if boundaryCells > 0
+    Input:
+        seeds               the seed of every replica, a single one for an open road
+        firstCarID          ID of the first generated car, the others follow
+        boundaryCells       number of cells seen ahead of the end and behind the start of an open road
+    */
+    private RoadNS(SimulationConfig config, long[] seeds, boolean generate, int firstCarID, int boundaryCells){
+        
+        if (Math.max(config.maxSpeedFastCar, config.maxSpeedSlowCar) > CompactLanes.MAX_SPEED)
+            throw new IllegalArgumentException("Max speed of cars is limited to " + CompactLanes.MAX_SPEED);
+        if (config.numLanes < 1)
+            throw new IllegalArgumentException("Number of lanes must be positive: " + config.numLanes);
+        if (seeds.length < 1 || (seeds.length > 1 && boundaryCells > 0))
+            throw new IllegalArgumentException("A ring has at least 1 replica, an open road exactly 1: " + seeds.length);
         
         // Initialise variables
-        cars = new ArrayList<>();
-        rightLane = new int[TrafficSimulation.ROAD_SIZE];
-        leftLane = new int[TrafficSimulation.ROAD_SIZE];
-
-        helperRight = new int[TrafficSimulation.ROAD_SIZE];
-        helperLeft = new int[TrafficSimulation.ROAD_SIZE];
+        this.config = config;
+        this.seeds = seeds.clone();
+        numLanes = config.numLanes;
+        replicas = seeds.length;
+        numRows = replicas * numLanes;
+        carsPerReplica = config.getTotalCars();
+        cars = new VehicleStore(replicas * carsPerReplica, numRows, config.roadSize);
+        dawdleThreshold = RandomStreams.threshold(config.probabilityFluctuation);
+        dawdleMask = new long[(replicas * carsPerReplica + 63) >>> 6];
+        numCarsPassingEnd = new int[replicas];
+        measuresStartStep = new int[replicas];
+        lastStepPassingEnd = new int[replicas];
+        lastStepDistance = new long[replicas];
+        
+        // segments own whole words of the lanes, so they can be written in parallel
+        int segments = Math.max(1, Math.min(config.stepSegments, config.roadSize));
+        int words = (config.roadSize + CompactLanes.CELLS_PER_WORD - 1) / CompactLanes.CELLS_PER_WORD;
+        segmentLength = ((words + segments - 1) / segments) * CompactLanes.CELLS_PER_WORD;
+        numSegments = (config.roadSize + segmentLength - 1) / segmentLength;
+        pool = numSegments > 1 ? ForkJoinPool.commonPool() : null;
+        numCarsPassingEndPerSegment = new int[numSegments * replicas];
+        distancePerSegment = new long[numSegments * replicas];
+        laneChangesPerSegment = new int[numSegments];
+        scanPerSegment = new long[numSegments];
 
-        for (int i = 0; i < rightLane.length; i++) {
-            rightLane[i] = -1;
-            leftLane[i] = -1;
+        lanes = new CompactLanes(numRows, config.roadSize);
+        helperLanes = new CompactLanes(numRows, config.roadSize);
+        
+        this.firstCarID = firstCarID;
+        if (boundaryCells > 0) {
+            aheadCells = new CompactLanes(numLanes, boundaryCells);
+            behindCells = new CompactLanes(numLanes, boundaryCells);
+            exitSlots = new int[numSegments][numLanes * CompactLanes.MAX_SPEED];
+            numExits = new int[numSegments];
+        } else {
+            aheadCells = null;
+            behindCells = null;
+            exitSlots = null;
+            numExits = null;
         }
+        statistics = boundaryCells > 0 ? null : new CarStatistics(replicas, numSegments,
+                config.numberOfIterations * Math.max(config.maxSpeedFastCar, config.maxSpeedSlowCar));
         
-        generateCars();
+        if (generate)
+            generateCars();
+    }
+    
+    /*==============================================================================
+    Checkpoints: the whole state of the road in a binary file, to start runs from a
+    saved (e.g. equilibrium) state or to resume a run after a crash
+    *==============================================================================*/
+    
+    public void saveCheckpoint(Path file) throws IOException {
+        if (isOpen() || replicas > 1)
+            throw new IllegalStateException("Only a ring of one replica can be saved in a checkpoint");
+        Checkpoint.save(this, file);
+    }
+    
+    /*
+    Input:
+        config      the parameters of the run, with the same road size and number of cars as the checkpoint
+    Output:
+        the road in the state it was saved, it continues exactly as the saved one would have
+    */
+    public static RoadNS restoreCheckpoint(SimulationConfig config, Path file) throws IOException {
+        return Checkpoint.restore(config, file);
+    }
+    
+    /*
+    Continue the road at another density, e.g. the next point of a density sweep (see DensityContinuation)
+    Input:
+        config      the parameters of the next point, with the same road size, number of lanes and broken car
+        seed        the seed of the next point
+    Output:
+        a road with the cars of this one in their current state, random cars removed or new cars
+        added at random free cells to get the numbers of slow and fast cars of config
+    */
+    public RoadNS withDensity(SimulationConfig config, long seed) {
+        if (isOpen() || replicas > 1)
+            throw new IllegalStateException("Only a ring of one replica can be continued at another density");
+        return DensityContinuation.changeDensity(this, config, seed);
+    }
+    
+    /*
+    Finish a restore once the columns of the cars are filled: counters, order of the cars and lanes
+    */
+    void restoreState(int step, int measuresStartStep, int numCarsPassingEnd) {
+        this.step = step;
+        this.measuresStartStep[0] = measuresStartStep;
+        this.numCarsPassingEnd[0] = numCarsPassingEnd;
+        
+        // the cars are saved in order, only the index of the store is rebuilt
+        // the lanes are written as in the last step: of cars on the same cell, the last one wins
+        cars.rebuildIndex();
+        for (int slot = 0; slot < cars.size(); slot++) {
+            lanes.set(cars.lane[slot], cars.position[slot], cars.speed[slot]);
+        }
+        lanes.updateSummary();
+        rebuildStatistics();
+    }
+    
+    /*
+    Start the measures from the current state, e.g. after a warm-up or a restore of an equilibrium state
+    The traveled distances, the max reached speeds and the cars passing the end are counted again from 0
+    */
+    public void resetMeasures() {
+        for (int replica = 0; replica < replicas; replica++) {
+            resetMeasures(replica);
+        }
+    }
+    
+    /*
+    Same as resetMeasures(), for one replica only (e.g. its own warm-up is done)
+    */
+    public void resetMeasures(int replica) {
+        int last = getEndSlot(replica);
+        for (int slot = getFirstSlot(replica); slot < last; slot++) {
+            cars.traveledDistance[slot] = 0;
+            cars.maxReachedSpeed[slot] = -1;
+        }
+        numCarsPassingEnd[replica] = 0;
+        measuresStartStep[replica] = step;
+        if (statistics != null)
+            statistics.rebuild(cars, replica, getFirstSlot(replica), getEndSlot(replica));
+    }
+    
+    /*
+    Count the cars of the store again in the statistics, after the cars changed outside a step
+    */
+    private void rebuildStatistics() {
+        if (statistics == null) return;
+        for (int replica = 0; replica < replicas; replica++) {
+            statistics.rebuild(cars, replica, getFirstSlot(replica), getEndSlot(replica));
+        }
     }
 
     
     /*==============================================================================
     Generate cars for the model at the beginning
-    - Cars are randomly scattered over the road segment, equally on two lanes
+    - Cars are randomly scattered over the road segment, equally on all lanes
     - Speed of car are randomly generated
+    - every replica is generated from its own seed, on its own lanes
     *==============================================================================*/
     public void generateCars(){
+        for (int replica = 0; replica < replicas; replica++) {
+            generateCars(replica);
+        }
+        cars.sortByLaneAndPosition();
+        lanes.updateSummary();
+        rebuildStatistics();
+    }
+    
+    private void generateCars(int replica){
         
-        // randomly generate position for cars
-        Integer[] positionLeft=new Integer[TrafficSimulation.ROAD_SIZE];
-        Integer[] positionRight=new Integer[TrafficSimulation.ROAD_SIZE];
-        for (int i=0; i<TrafficSimulation.ROAD_SIZE; i++) {
-            positionLeft[i] = i;
-            positionRight[i] = i;
+        Random r = new Random(RandomStreams.split(seeds[replica], RandomStreams.STREAM_GENERATION));
+        int firstRow = replica * numLanes;                                  // the lane L of the replica is the row firstRow + L
+        
+        // assume lane usage is equal, the right lanes may have 1 car more than the left ones
+        int totalCars = config.getTotalCars();
+        int[] limitNumCarLane = new int[numLanes + 1];                      // per lane, index 0 is not used
+        for (int lane = RIGHT_LANE; lane <= numLanes; lane++) {
+            limitNumCarLane[lane] = totalCars / numLanes + (lane - RIGHT_LANE < totalCars % numLanes ? 1 : 0);
         }
-        Collections.shuffle(Arrays.asList(positionLeft));       // permute the positions and select the first number of positions from the list
-        Collections.shuffle(Arrays.asList(positionRight));
         
-        // assume lane usage is equal
-        int totalCars = TrafficSimulation.NUM_FAST_CARS + TrafficSimulation.NUM_SLOW_CARS;
-        int limitNumCarLeftLane = (int)(totalCars/2);
-        int limitNumCarRightLane = totalCars - limitNumCarLeftLane;   // may have 1 car more than the left lane
+        // randomly generate position for cars, from the leftmost lane to the right
+        // permute the positions and select the first number of positions from the list (only these need to be shuffled)
+        int[][] positionLane = new int[numLanes + 1][];
+        for (int lane = numLanes; lane >= RIGHT_LANE; lane--) {
+            positionLane[lane] = shuffledPositions(limitNumCarLane[lane], r);
+        }
         
        // variables to keep track information of the generation process
-        int numCarRightLane_generated=0, numCarLeftLane_generated=0, posIndexLeftLane=0, posIndexRightLane=0;        
-        int currentPosition = 0, slow_generated = 0, fast_generated = 0, lane, type_of_car;
-        CarNS tmpC;
-        Random r = new Random();           
+        int[] numCarLane_generated = new int[numLanes + 1];                 // also the index of the next position of the lane
+        int currentPosition = 0, slow_generated = 0, fast_generated = 0, lane, type_of_car, speed;
         
-        boolean createdBrokenCar = ! TrafficSimulation.HAS_BROKEN_CAR;      // to create or not the broken car
+        boolean createdBrokenCar = ! config.hasBrokenCar;      // to create or not the broken car
         
         if (TrafficSimulation.DEBUG >= 5) 
-            System.out.println("limitLeftLane = " + limitNumCarLeftLane + " limitRightLane = " + limitNumCarRightLane);
+            System.out.println("limits per lane (from the right) = " + Arrays.toString(Arrays.copyOfRange(limitNumCarLane, RIGHT_LANE, numLanes + 1)));
         
         for (int i = 0; i < totalCars; i++) {
             
-            // randomly choose the lane (unless the limit is reached)
-            if (numCarRightLane_generated >= limitNumCarRightLane)              // limit is reached
-                lane = LEFT_LANE;
-            else if (numCarLeftLane_generated >= limitNumCarLeftLane)           // limit is reached
-                lane = RIGHT_LANE;            
-            else lane = r.nextInt(NUM_LANES) + 1;                               // randomly select
+            // randomly choose the lane among the lanes whose limit is not reached (no choice if there is one only)
+            int openLanes = 0;
+            for (int l = RIGHT_LANE; l <= numLanes; l++) {
+                if (numCarLane_generated[l] < limitNumCarLane[l]) openLanes++;
+            }
+            int choice = openLanes == 1 ? 0 : r.nextInt(openLanes);         // randomly select
+            lane = RIGHT_LANE;                                                  // the open lane number choice, counted from the right
+            while (numCarLane_generated[lane] >= limitNumCarLane[lane] || choice-- > 0) {
+                lane++;
+            }
             
             // retrieve position for the (soon to be generated) car to be placed
-            if (lane == RIGHT_LANE) {
-                currentPosition = positionRight[posIndexRightLane];
-                posIndexRightLane++;
-            }
-            else {
-                currentPosition = positionLeft[posIndexLeftLane];
-                posIndexLeftLane++;
-            }            
+            currentPosition = positionLane[lane][numCarLane_generated[lane]];
             
             // randomly choose the type of car (unless the limit is reached)
-            if (slow_generated == TrafficSimulation.NUM_SLOW_CARS)              // limit is reached
+            if (slow_generated == config.numSlowCars)              // limit is reached
                 type_of_car = TYPE_CAR_FAST;
-            else if (fast_generated == TrafficSimulation.NUM_FAST_CARS)         // limit is reached
+            else if (fast_generated == config.numFastCars)         // limit is reached
                 type_of_car = TYPE_CAR_SLOW;
             else type_of_car = r.nextInt(NUM_TYPE_CAR) + 1;                     // randomly select
 
-            // generate the car and add it to the list of cars
+            // generate the car and add it to the store
+            // the speed is equal or 1 unit less than the max speed of car to make it more realistic
             if (type_of_car == TYPE_CAR_SLOW) {                
-//                if (!createdBrokenCar && TrafficSimulation.NUM_SLOW_CARS <= 4*(slow_generated+1)){
+//                if (!createdBrokenCar && config.numSlowCars <= 4*(slow_generated+1)){
                 if (!createdBrokenCar){
                     createdBrokenCar = true;                                    // create 1 only, so turn it off for the rest
-                    tmpC = new BrokenCarNS(i, lane, currentPosition, TrafficSimulation.MAX_SPEED_FAST_CAR); // broken car
-                    slow_generated++;
-                } else {
-                    tmpC = new SlowCarNS(i, lane, currentPosition, TrafficSimulation.MAX_SPEED_FAST_CAR);   // slow car
-                    slow_generated++;                    
-                }                
+                    type_of_car = TYPE_CAR_BROKEN;                              // broken car
+                }
+                slow_generated++;
             } else {
-                tmpC = new FastCarNS(i, lane, currentPosition, TrafficSimulation.MAX_SPEED_FAST_CAR);
                 fast_generated++;
             }
-            cars.add(tmpC);
+            int maxSpeed = type_of_car == TYPE_CAR_FAST ? config.maxSpeedFastCar : config.maxSpeedSlowCar;
+            speed = Math.max(Math.min(maxSpeed, config.maxSpeedFastCar) - r.nextInt(2), 0);
+            cars.add(firstCarID + i, firstRow + lane, currentPosition, speed, maxSpeed, type_of_car);
 
             // save data to the road structure (lanes)
-            if (lane == RIGHT_LANE) {
-                rightLane[currentPosition] = tmpC.getSpeed();
-                numCarRightLane_generated++;
-            }
-            else {
-                leftLane[currentPosition] = tmpC.getSpeed();
-                numCarLeftLane_generated++;
-            }
+            lanes.set(firstRow + lane, currentPosition, speed);
+            numCarLane_generated[lane]++;
         }
         
         if (TrafficSimulation.DEBUG >= 5) 
-            System.out.println("LeftLane_generated = " + numCarLeftLane_generated + " RightLane_generated = " + numCarRightLane_generated);
+            System.out.println("generated per lane (from the right) = " + Arrays.toString(Arrays.copyOfRange(numCarLane_generated, RIGHT_LANE, numLanes + 1)));
         
         if (TrafficSimulation.DEBUG>=5){
-            System.out.println("Left lane\n" + Arrays.toString(leftLane) + "\n");        
-            System.out.println("Right lane\n" + Arrays.toString(rightLane) + "\n");
+            for (lane = numLanes; lane >= RIGHT_LANE; lane--) {
+                System.out.println("Lane " + lane + "\n" + lanes.toString(firstRow + lane) + "\n");
+            }
         }
     }
 
+    /*
+    Partial Fisher-Yates shuffle of the cells of a lane
+    Output:
+        an array whose first count elements are distinct random cells
+    */
+    private int[] shuffledPositions(int count, Random r) {
+        int[] positions = new int[config.roadSize];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i;
+        }
+        for (int i = 0; i < Math.min(count, positions.length - 1); i++) {
+            int j = i + r.nextInt(positions.length - i);
+            int tmp = positions[i];
+            positions[i] = positions[j];
+            positions[j] = tmp;
+        }
+        return positions;
+    }
+
     public void nextState() {
+        SimulationEvents.Step event = SimulationEvents.beginStep();      // null unless a recording enables it
+        moveCars();
+        finishStep();
+        SimulationTelemetry.stepDone(cars.size());
+        if (event != null && event.shouldCommit()) {
+            event.step = step;
+            event.cars = cars.size();
+            event.segments = numSegments;
+            event.laneChanges = lastStepLaneChanges;
+            event.meanScanLength = getLastStepScanLength();
+            for (int replica = 0; replica < replicas; replica++) {
+                event.distance += lastStepDistance[replica];
+            }
+            event.commit();
+        }
+    }
+    
+    /*
+    First part of a step: the cars move in the store (the cars which leave an open road are only counted)
+    */
+    void moveCars() {
         // CALCULATE NEW STATE /////////////////////////////////////////////////
-        // clear helper lanes
-        for (int i = 0; i < helperRight.length; i++) {
-            helperRight[i] = -1;
-            helperLeft[i] = -1;
+        // draw whether the cars dawdle, for all cars at once (on an open road the IDs are not
+        // consecutive, every car draws when it moves)
+        if (!isOpen())
+            SegmentTask.runPhase(pool, this, PHASE_DRAW, numSegments);
+        
+        if (nextLane.length < cars.size()) {                                    // first step, or cars entered an open road
+            nextLane = new int[cars.id.length];
+            nextGap = new int[cars.id.length];
+            nextDawdle = new int[cars.id.length];
         }
-
-        // move cars (check rules on current road and save new positions in next road)
-        for (CarNS car : cars) {
-            moveCar(car);
+        
+        // move cars (check rules on current road and save new state in the store)
+        SegmentTask.runPhase(pool, this, PHASE_MOVE, numSegments);
+        for (int replica = 0; replica < replicas; replica++) {
+            lastStepPassingEnd[replica] = 0;
+            lastStepDistance[replica] = 0;
+            for (int s = 0; s < numSegments; s++) {
+                lastStepPassingEnd[replica] += numCarsPassingEndPerSegment[s * replicas + replica];
+                lastStepDistance[replica] += distancePerSegment[s * replicas + replica];
+            }
+            numCarsPassingEnd[replica] += lastStepPassingEnd[replica];
         }
+        if (statistics != null)
+            statistics.stepDone();
+        lastStepLaneChanges = 0;
+        lastStepScan = 0;
+        for (int s = 0; s < numSegments; s++) {
+            lastStepLaneChanges += laneChangesPerSegment[s];
+            lastStepScan += scanPerSegment[s];
+        }
+    }
+    
+    /*
+    Second part of a step: the new state of the lanes (cars may enter an open road in between, see enterCar())
+    */
+    void finishStep() {
+        // restore the order of the cars, the cars which left an open road are in the last slots and dropped
+        cars.sortByLaneAndPosition(pool, numSegments);
+        if (isOpen())
+            cars.setSize(cars.firstSlotOf(numLanes, config.roadSize));
+        
+        // save the new positions in next road
+        SegmentTask.runPhase(pool, this, PHASE_WRITE, numSegments);
+        helperLanes.updateSummary();
 
         // END OF CALCULATE NEW STATE //////////////////////////////////////////
         //
-        // set new state
-        rightLane = helperRight.clone();
-        leftLane = helperLeft.clone();
+        // set new state: swap the buffers, the old lanes are the helpers of the next step
+        CompactLanes tmp = lanes;
+        lanes = helperLanes;
+        helperLanes = tmp;
+        
+        step++;
+        
+        if (detectors != null)
+            detectors.stepDone(lanes);
+    }
+    
+    /*
+    Record time series (lanes and loop detectors) at every step from now on
+    */
+    public void setDetectors(DetectorSeries series) {
+        if (replicas > 1)
+            throw new IllegalStateException("Time series are recorded on a road of one replica");
+        series.attach(config.roadSize, numLanes, numSegments, Math.max(config.maxSpeedFastCar, config.maxSpeedSlowCar));
+        detectors = series;
+    }
+    
+    public DetectorSeries getDetectors() {
+        return detectors;
+    }
+    
+    /*==========================================================================
+    Run one phase of a step on the cells [from, to) of a segment, for all lanes
+    (except the draw, which runs on a range of car IDs)
+    ==========================================================================*/
+    @Override
+    public void runPhase(int phase, int segment) {
+        int from = Math.min(segment * segmentLength, config.roadSize);     // the last segments may be empty on short roads
+        int to = Math.min(from + segmentLength, config.roadSize);
+        
+        switch (phase) {
+            case PHASE_DRAW:
+                int firstWord = (int) ((long) dawdleMask.length * segment / numSegments);
+                int lastWord = (int) ((long) dawdleMask.length * (segment + 1) / numSegments);
+                // bit i is the car i - replica * carsPerReplica of the replica
+                int replicaOfBit = firstWord < lastWord ? (firstWord << 6) / carsPerReplica : 0;
+                int replicaStart = replicaOfBit * carsPerReplica;
+                for (int w = firstWord; w < lastWord; w++) {
+                    long bits = 0;
+                    int numIDs = Math.min(64, cars.size() - (w << 6));
+                    for (int b = 0; b < numIDs; b++) {
+                        int i = (w << 6) + b;
+                        if (i - replicaStart == carsPerReplica) {
+                            replicaOfBit++;
+                            replicaStart += carsPerReplica;
+                        }
+                        long stream = RandomStreams.carStream(seeds[replicaOfBit], i - replicaStart, RandomStreams.CAR_STREAM_DAWDLE);
+                        if (RandomStreams.nextBoolean(stream, step, dawdleThreshold)) bits |= 1L << b;
+                    }
+                    dawdleMask[w] = bits;
+                }
+                break;
+                
+            case PHASE_MOVE:
+                if (isOpen()) numExits[segment] = 0;
+                int laneChanges = 0;
+                long scan = 0;
+                for (int replica = 0; replica < replicas; replica++) {
+                    int passing = 0;
+                    long distance = 0;
+                    for (int row = replica * numLanes + RIGHT_LANE; row <= (replica + 1) * numLanes; row++) {
+                        int first = cars.firstSlotOf(row, from);
+                        int last = cars.firstSlotOf(row, to);
+                        for (int slot = first; slot < last; slot++) {
+                            changeLane(slot, replica);
+                        }
+                        // the speeds of all cars of the lane at once, or car by car
+                        if (config.vectorKernel) {
+                            VelocityKernel.moveForward(config.maxAcceleration, cars.speed, cars.maxSpeed, nextGap, nextDawdle, first, last);
+                        } else {
+                            for (int slot = first; slot < last; slot++) {
+                                cars.speed[slot] = CarNS.moveForward(config, cars.speed[slot], cars.maxSpeed[slot], nextGap[slot], nextDawdle[slot] != 0);
+                            }
+                        }
+                        for (int slot = first; slot < last; slot++) {
+                            laneChanges += nextLane[slot] != cars.lane[slot] ? 1 : 0;
+                            scan += Math.min(nextGap[slot], config.roadSize);
+                            passing += moveCar(slot, segment, replica);
+                            distance += cars.speed[slot];
+                        }
+                    }
+                    numCarsPassingEndPerSegment[segment * replicas + replica] = passing;
+                    distancePerSegment[segment * replicas + replica] = distance;
+                }
+                laneChangesPerSegment[segment] = laneChanges;
+                scanPerSegment[segment] = scan;
+                break;
+                
+            case PHASE_WRITE:
+                // cars on the same cell are next to each other in the store, the last one wins
+                helperLanes.clear(from, to);
+                for (int row = RIGHT_LANE; row <= numRows; row++) {
+                    int last = cars.firstSlotOf(row, to);
+                    for (int slot = cars.firstSlotOf(row, from); slot < last; slot++) {
+                        helperLanes.set(row, cars.position[slot], cars.speed[slot]);
+                    }
+                }
+                break;
+        }
     }
 
     /*
-     * Prints the current state of the road to the console.
+     * Prints the current state of the road to the console, the leftmost lane first
+     * (replica after replica, separated by an empty line).
      */
     public void printTrafficSituation() {
-        String traffic_rightLane = "|", traffic_leftLane = "|";
+        StringBuilder traffic = new StringBuilder();
 
-        for (int i = 0; i < rightLane.length; i++) {
-            traffic_rightLane += toSymbol(rightLane[i]);
-            traffic_leftLane += toSymbol(leftLane[i]);
+        for (int replica = 0; replica < replicas; replica++) {
+            if (replica > 0) traffic.append('\n');
+            for (int row = (replica + 1) * numLanes; row > replica * numLanes; row--) {
+                traffic.append('|');
+                for (int i = 0; i < lanes.size(); i++) {
+                    traffic.append(toSymbol(lanes.get(row, i)));
+                }
+                traffic.append("|\n");
+            }
         }
 
-        traffic_rightLane += "|";
-        traffic_leftLane += "|";
-
-        System.out.println(traffic_leftLane + "\n" + traffic_rightLane + "\n");
+        System.out.println(traffic);
     }
     
     /*==========================================================================
     get total traveled distance of all cars so far, except the broken one
     ==========================================================================*/
-    public int getTotalTraveledDistance(){
-        int totalDistance = 0;
-        for (CarNS c : cars) {
-            if (!c.getType().equals('E'))
-                totalDistance += c.getTraveledDistance();
+    public long getTotalTraveledDistance(){
+        if (statistics != null)
+            return statistics.getTotalDistance(0, TYPE_CAR_SLOW) + statistics.getTotalDistance(0, TYPE_CAR_FAST);
+        long totalDistance = 0;
+        for (int slot = 0; slot < cars.size(); slot++) {
+            if (cars.type[slot] != TYPE_CAR_BROKEN)
+                totalDistance += cars.traveledDistance[slot];
         }
         return totalDistance;
     }
+    
+    /*
+    measures of the cars per replica and type, kept up to date at every step (null for an open road)
+    */
+    public CarStatistics getStatistics(){
+        return statistics;
+    }
 
     
     /*==========================================================================
     get number of cars which have passed the end of road segment so far
     ==========================================================================*/
     public int getNumCarsPassingEnd(){
-        return numCarsPassingEnd;
+        return numCarsPassingEnd[0];
+    }
+    
+    public int getNumCarsPassingEnd(int replica){
+        return numCarsPassingEnd[replica];
+    }
+    
+    /*
+    flow and speed of the last step: cars passing the end and cells driven by all cars
+    */
+    public int getLastStepPassingEnd(){
+        return lastStepPassingEnd[0];
+    }
+    
+    public int getLastStepPassingEnd(int replica){
+        return lastStepPassingEnd[replica];
+    }
+    
+    public long getLastStepDistance(){
+        return lastStepDistance[0];
+    }
+    
+    public long getLastStepDistance(int replica){
+        return lastStepDistance[replica];
+    }
+    
+    /*
+    number of cars (all replicas) which changed lane in the last step
+    */
+    public int getLastStepLaneChanges(){
+        return lastStepLaneChanges;
+    }
+    
+    /*
+    mean number of empty cells between a car and the car ahead on its lane (at most the road size)
+    in the last step, i.e. how far the search of the neighbours went; 0 if there is no car
+    */
+    public double getLastStepScanLength(){
+        return cars.size() == 0 ? 0 : lastStepScan / (double) cars.size();
+    }
+    
+    long getLastStepScannedCells(){
+        return lastStepScan;
+    }
+    
+    public SimulationConfig getConfig(){
+        return config;
+    }
+    
+    public long getSeed(){
+        return seeds[0];
+    }
+    
+    public long getSeed(int replica){
+        return seeds[replica];
+    }
+    
+    /*
+    number of replicas of the configuration on the road, 1 unless created with RoadNS(config, seeds)
+    */
+    public int getReplicas(){
+        return replicas;
+    }
+    
+    /*
+    the cars of a replica are in the slots [getFirstSlot(replica), getEndSlot(replica)) of the store
+    (between two steps), their lanes are the lanes of the replica + replica * numLanes
+    */
+    public int getFirstSlot(int replica){
+        return cars.firstSlotOf(replica * numLanes + RIGHT_LANE, 0);
+    }
+    
+    public int getEndSlot(int replica){
+        return replicas == 1 ? cars.size() : getFirstSlot(replica + 1);    // an open road may hold cars past its end
+    }
+    
+    /*
+    number of steps done since the cars were generated
+    */
+    public int getStep(){
+        return step;
+    }
+    
+    /*
+    step at which the measures started, 0 unless resetMeasures() was called
+    */
+    public int getMeasuresStartStep(){
+        return measuresStartStep[0];
+    }
+    
+    public int getMeasuresStartStep(int replica){
+        return measuresStartStep[replica];
     }
     
     /*
      *
-     * @return The list of cars in the road.
+     * @return A snapshot of the cars in the road, sorted by lane and position.
      */
     public ArrayList<CarNS> getCars() {
+        ArrayList<CarNS> snapshot = new ArrayList<>(cars.size());
+        for (int slot = 0; slot < cars.size(); slot++) {
+            snapshot.add(CarNS.view(cars, slot));
+        }
+        return snapshot;
+    }
+    
+    /*
+     *
+     * @return The columnar store of the cars in the road.
+     */
+    public VehicleStore getVehicles() {
         return cars;
     }
 
@@ -250,116 +767,255 @@ public class RoadNS {
     }
 
     /*
-    find the speed of the car in front on a given lane and the distance with it from a given position
+    bring a position which is at most one road length outside the road back on the road
+    cheaper than Math.floorMod() as no division is needed
+    */
+    private int wrap(int position) {
+        if (position < 0) return position + config.roadSize;
+        if (position >= config.roadSize) return position - config.roadSize;
+        return position;
+    }
+
+    /*
+    find the car in front of a cell
     Input:
-        lane        the lane where the car in front will be checked
-        position    the position where the current car is supposed to be
+        lane        the lane to search
+        cell        the cell where the current car is supposed to be, -1 on an open road is before the start
     Output:
-        a variable which contain the speed of the car in front, and the number of cells in between from that car's position to the given position
-        if there is no such car, speed will be max_speed of the system, distance = infinitive
+        the cell of the car, -1 if no car; on an open road a car of the boundary cells ahead is
+        at roadSize + its cell, and no car beyond them is seen
     */
-    private SpeedDistance getStatusWithFrontCar(int lane, int position) {
-        int speed = 0, distance = 0;
-        int[] arr;
+    private int findFrontCar(int lane, int cell) {
+        if (!isOpen()) return lanes.nextOccupiedCyclic(lane, cell);
         
-        if (lane==RIGHT_LANE) arr = rightLane;
-        else arr = leftLane;
-            
-        for (int i = position + 1; i < TrafficSimulation.ROAD_SIZE; i++) {
-            if (arr[i] != -1){
-                speed = arr[i];
-                distance = i - position - 1;
-                return new SpeedDistance(speed, distance);
-            }          
-        }
+        int found = lanes.nextOccupied(lane, cell + 1);
+        if (found != -1) return found;
+        found = aheadCells.nextOccupied(lane, 0);
+        return found == -1 ? -1 : config.roadSize + found;
+    }
 
-        // the consideration car is at the end of the road, therefore continue searching from the beginning of the lane
-        for (int i = 0; i < TrafficSimulation.ROAD_SIZE; i++) {
-            if (arr[i] != -1){
-                speed = arr[i];
-                distance = i + TrafficSimulation.ROAD_SIZE - position - 1;
-                return new SpeedDistance(speed, distance);              
-            }
-        }
+    /*
+    find the number of cells in between a cell and the car in front of it
+    Input:
+        carCell     the cell of the car in front, found with findFrontCar(), -1 if no car
+        cell        the cell where the current car is supposed to be
+    Output:
+        the number of empty cells, Integer.MAX_VALUE if there is no such car
+    */
+    private int getGapToFrontCar(int carCell, int cell) {
+        if (carCell == -1) return Integer.MAX_VALUE;                            // no car
         
-        return new SpeedDistance(TrafficSimulation.MAX_SPEED_FAST_CAR, Integer.MAX_VALUE);  // no car
+        return isOpen() ? carCell - cell - 1 : wrap(carCell - cell - 1);
     }
 
     /*
-    find the speed of the car behind on a given lane and the distance with it from a given position
+    find the speed of the car in front
     Input:
-        lane        the lane where the car behind will be checked
-        position    the position where the current car is supposed to be
+        lane        the lane where the car in front was found
+        carCell     the cell of that car, found with findFrontCar(), -1 if no car
     Output:
-        a variable which contain the speed of the car behind, and the number of cells in between from that car's position to the given position
-        if there is no such car, speed will be max_speed of the system, distance = infinitive
+        the speed of that car, max_speed of the system if there is no such car
     */
-    private SpeedDistance getStatusWithBehindCar(int lane, int position) {
-        int speed = 0, distance = 0;
-        int[] arr;
+    private int getSpeedOfFrontCar(int lane, int carCell) {
+        if (carCell == -1) return config.maxSpeedFastCar;         // no car
+        if (carCell >= config.roadSize) return aheadCells.get(lane, carCell - config.roadSize);
         
-        if (lane==RIGHT_LANE) arr = rightLane;
-        else arr = leftLane;
-            
-        for (int i = position - 1; i >= 0; i--) {
-            if (arr[i] != -1){
-                speed = arr[i];
-                distance = position - i - 1;
-                return new SpeedDistance(speed, distance);
-            }          
-        }
+        return lanes.get(lane, carCell);
+    }
 
-        // the consideration car is at the begining of the road, therefore continue searching from the end of the lane
-        for (int i = TrafficSimulation.ROAD_SIZE-1; i >= 0; i--) {
-            if (arr[i] != -1){
-                speed = arr[i];
-                distance = position + TrafficSimulation.ROAD_SIZE - i - 1;
-                return new SpeedDistance(speed, distance);              
-            }
+    /*
+    find the number of cells in between a cell and the car behind it
+    Input:
+        lane        the lane to search
+        cell        the cell where the current car is supposed to be, roadSize on an open road is after the end
+    Output:
+        the number of empty cells, Integer.MAX_VALUE if there is no such car
+        (on an open road, no car is seen beyond the boundary cells behind the start)
+    */
+    private int getGapToBehindCar(int lane, int cell) {
+        if (!isOpen()) {
+            int carCell = lanes.previousOccupiedCyclic(lane, cell);
+            if (carCell == -1) return Integer.MAX_VALUE;                        // no car
+            return wrap(cell - carCell - 1);
         }
         
-        return new SpeedDistance(TrafficSimulation.MAX_SPEED_FAST_CAR, Integer.MAX_VALUE);  // no car
+        int carCell = lanes.previousOccupied(lane, cell - 1);
+        if (carCell != -1) return cell - carCell - 1;
+        carCell = behindCells.previousOccupied(lane, behindCells.size() - 1);   // cell c of the boundary is the cell c - size before the start
+        if (carCell == -1) return Integer.MAX_VALUE;                            // no car
+        return cell + behindCells.size() - carCell - 1;
     }
     
     /*
-    Update step for a specific car
-    The car will check rules to change lane and move forward
-    The status of road is then updated
+    First part of the update step for a specific car: the rules to change lane (CarNS.changeLane())
+    The new lane, the gap ahead and the dawdle draw are saved in nextLane, nextGap
+    and nextDawdle, the rules to move forward are then applied to all cars of a lane (see PHASE_MOVE)
+    A broken car which is broken down keeps its lane and decelerates: its gap is its speed - 1
     
     Input: 
-        car     the car in consideration
+        slot    the slot of the car in consideration in the store
+        replica the replica of the car, its lanes are the rows replica * numLanes + 1 ..
     */
-    private void moveCar(CarNS car) {
-        int lane = car.getLane();
-        int position = car.getPosition();
-        int speed = car.getSpeed();
-        int otherLane = Math.floorMod(2*lane,3);
+    private void changeLane(int slot, int replica) {
+        int lane = cars.lane[slot];                 // the row of the lane
+        int laneOfReplica = lane - replica * numLanes;
+        int position = cars.position[slot];
+        int speed = cars.speed[slot];
 
-        // get neighbors information
-        SpeedDistance withCarFront = getStatusWithFrontCar(lane, position);
-        SpeedDistance withCarFrontNextLane = getStatusWithFrontCar(otherLane, position-1);
-        SpeedDistance withCarBehindNextLane = getStatusWithBehindCar(otherLane, position+1);
+        // get neighbors information (the neighbour lanes are looked at from one cell behind and one cell ahead)
+        int cellBehind = isOpen() ? position-1 : wrap(position-1);
+        int cellAhead = isOpen() ? position+1 : wrap(position+1);
+        int front = findFrontCar(lane, position);
+        int gapFront = getGapToFrontCar(front, position);
+        int speedFront = getSpeedOfFrontCar(lane, front);
+        
+        int gapFrontLeft = CarNS.NO_LANE, speedFrontLeft = 0, gapBehindLeft = CarNS.NO_LANE;
+        if (laneOfReplica < numLanes) {
+            int frontLeft = findFrontCar(lane + 1, cellBehind);
+            gapFrontLeft = getGapToFrontCar(frontLeft, cellBehind);
+            speedFrontLeft = getSpeedOfFrontCar(lane + 1, frontLeft);
+            gapBehindLeft = getGapToBehindCar(lane + 1, cellAhead);
+        }
+        int gapFrontRight = CarNS.NO_LANE, speedFrontRight = 0, gapBehindRight = CarNS.NO_LANE;
+        if (laneOfReplica > RIGHT_LANE) {
+            int frontRight = findFrontCar(lane - 1, cellBehind);
+            gapFrontRight = getGapToFrontCar(frontRight, cellBehind);
+            speedFrontRight = getSpeedOfFrontCar(lane - 1, frontRight);
+            gapBehindRight = getGapToBehindCar(lane - 1, cellAhead);
+        }
         
         // apply rules
-        int newSpeed = car.adaptSpeed(withCarFront, withCarFrontNextLane, withCarBehindNextLane);
+        int id = cars.id[slot];
+        int bit = replica * carsPerReplica + id;
+        boolean dawdle = isOpen()
+                ? RandomStreams.nextBoolean(RandomStreams.carStream(seeds[0], id, RandomStreams.CAR_STREAM_DAWDLE), step, dawdleThreshold)
+                : (dawdleMask[bit >>> 6] & (1L << bit)) != 0;
+        if (cars.type[slot] == TYPE_CAR_BROKEN && cars.brokenDown[slot]) {
+            nextLane[slot] = lane;
+            nextGap[slot] = speed == 0 ? 0 : speed - 1;
+            nextDawdle[slot] = 0;
+        } else {
+            int newLane = CarNS.changeLane(config, lane, speed, gapFront, speedFront,
+                    gapFrontLeft, speedFrontLeft, gapBehindLeft, gapFrontRight, speedFrontRight, gapBehindRight);
+            nextLane[slot] = newLane;
+            nextGap[slot] = gapFront;                                           // the rules to move forward look at the old lane
+            nextDawdle[slot] = dawdle ? 1 : 0;
+        }
+        if (cars.type[slot] == TYPE_CAR_BROKEN) {
+            float rand = RandomStreams.nextFloat(RandomStreams.carStream(seeds[replica], id, RandomStreams.CAR_STREAM_BREAK_DOWN), step);
+            cars.brokenDown[slot] = BrokenCarNS.nextBrokenDown(config, cars.brokenDown[slot], rand);
+        }
+    }
+    
+    /*
+    Last part of the update step for a specific car, once its new speed is in the store
+    Only the state of the car in the store is updated, the road is written after all cars moved
+    
+    Input: 
+        slot    the slot of the car in consideration in the store
+        segment the segment which moves the car
+        replica the replica of the car
+    Output:
+        1 if the car passes the end of the road segment, 0 otherwise
+    */
+    private int moveCar(int slot, int segment, int replica) {
+        int lane = cars.lane[slot];
+        int position = cars.position[slot];
+        int newSpeed = cars.speed[slot];
+        int newLane = nextLane[slot];
 
-        // counting for statistical purpose
-        if (position + newSpeed >= TrafficSimulation.ROAD_SIZE) numCarsPassingEnd += 1;
+        // update car (on an open road, a car passing the end leaves the road, see RoadNetwork)
+        int newPosition = isOpen() ? position + newSpeed : wrap(position + newSpeed);
+        if (newPosition >= config.roadSize) {
+            if (numExits[segment] == exitSlots[segment].length)
+                exitSlots[segment] = Arrays.copyOf(exitSlots[segment], 2 * numExits[segment]);
+            exitSlots[segment][numExits[segment]++] = slot;
+        }
         
-        // update road 
-        int newPosition = Math.floorMod(position + newSpeed, TrafficSimulation.ROAD_SIZE);
-        int newLane = car.lane;
+        cars.lane[slot] = newLane;
+        cars.position[slot] = newPosition;
+        cars.traveledDistance[slot] += newSpeed;
+        if (cars.maxReachedSpeed[slot] < newSpeed) cars.maxReachedSpeed[slot] = newSpeed;
         
-        car.setPosition(newPosition);       //new speed, lane are already updated during the call to adaptSpeed();
+        if (statistics != null)
+            statistics.carMoved(segment, replica, cars.type[slot], cars.traveledDistance[slot] - newSpeed, newSpeed);
+        if (detectors != null)
+            detectors.carMoved(segment, lane, newLane, cars.type[slot], position, newSpeed);
 
         if (TrafficSimulation.DEBUG >=20 ) 
-            System.out.println("Car " + car.getID() + " old speed " + speed + " new speed " + newSpeed + " old lane " + lane + " new lane " + newLane + "\n");
+            System.out.println("Car " + cars.id[slot] + " new speed " + newSpeed + " old lane " + lane + " new lane " + newLane + "\n");
         
-        if (newLane == LEFT_LANE) {
-            helperLeft[newPosition] = newSpeed;
-        } else {
-            helperRight[newPosition] = newSpeed;
-        }        
+        // counting for statistical purpose
+        return position + newSpeed >= config.roadSize ? 1 : 0;
+    }
+    
+    /*==========================================================================
+    Open roads of a network (see RoadNetwork), between moveCars() and finishStep()
+    ==========================================================================*/
+    
+    boolean isOpen() {
+        return aheadCells != null;
+    }
+    
+    CompactLanes getLanes() {
+        return lanes;
+    }
+    
+    CompactLanes getAheadCells() {
+        return aheadCells;
+    }
+    
+    CompactLanes getBehindCells() {
+        return behindCells;
+    }
+    
+    /*
+    Cars which passed the end in the step, their position is past the end of the road
+    */
+    int getNumExits(int segment) {
+        return numExits[segment];
+    }
+    
+    int getExitSlot(int segment, int i) {
+        return exitSlots[segment][i];
+    }
+    
+    int getNumSegments() {
+        return numSegments;
+    }
+    
+    /*
+    Put a car coming from another road in the store, it is written on the lanes by finishStep()
+    The car keeps its state, it does not move again in the step
+    */
+    void enterCar(VehicleStore from, int fromSlot, int lane, int position, int speed, int traveledDistance) {
+        cars.ensureCapacity(cars.size() + 1);
+        int slot = cars.add(from.id[fromSlot], lane, position, speed, from.maxSpeed[fromSlot], from.type[fromSlot]);
+        cars.traveledDistance[slot] = traveledDistance;
+        cars.maxReachedSpeed[slot] = from.maxReachedSpeed[fromSlot];
+        cars.brokenDown[slot] = from.brokenDown[fromSlot];
+    }
+    
+    /*
+    Put a new car (e.g. from an on-ramp) in the store, see enterCar()
+    */
+    void enterNewCar(int id, int lane, int position, int type) {
+        cars.ensureCapacity(cars.size() + 1);
+        cars.add(id, lane, position, 0, type == TYPE_CAR_FAST ? config.maxSpeedFastCar : config.maxSpeedSlowCar, type);
+    }
+    
+    /*
+    Keep a car which could not enter the next road on the last cell of its lane
+    The distance it did not drive is taken back from the measures of the step (not from the detectors)
+    */
+    void holdAtEnd(int slot) {
+        int lost = cars.position[slot] - (config.roadSize - 1);
+        cars.position[slot] = config.roadSize - 1;
+        cars.speed[slot] -= lost;
+        cars.traveledDistance[slot] -= lost;
+        numCarsPassingEnd[0]--;
+        lastStepPassingEnd[0]--;
+        lastStepDistance[0] -= lost;
     }
     
 }
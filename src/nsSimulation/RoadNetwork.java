@@ -0,0 +1,339 @@
+package nsSimulation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/*==============================================================================
+Network of roads joined at nodes: corridors with on-ramps, off-ramps and junctions
+- every road (link) is an open RoadNS from a node to a node, with its own
+  configuration (length, lanes, cars and rules)
+- a node with several incoming links is a merge, with several outgoing links a
+  diverge: a car passing the end of a link chooses its next link with the
+  turning weights of the outgoing links
+- a node may have an inflow (a source, e.g. an on-ramp): the new cars wait in
+  its queue until the first cell of a lane of an outgoing link is free; a node
+  without outgoing link is a sink (e.g. an off-ramp), it counts the cars which
+  leave the network
+- the lanes are numbered from the right on every link: a car keeps its lane
+  when it enters the next link, or takes its leftmost lane if it has fewer
+- a step of the network:
+  1. every link fills its boundary cells with the first BOUNDARY_CELLS cells of
+     the links after it and the last ones of the links before it (of cars on the
+     same cell of several links, the slowest is seen)
+  2. every link moves its cars (RoadNS.moveCars())
+  3. the cars which passed the end of a link enter their next link, link after
+     link; a car whose cell was taken by an earlier car of the step waits on the
+     last cell of its link; then the sources let their cars in
+  4. every link writes its new state (RoadNS.finishStep())
+  phases 1, 2 and 4 run on all links in parallel (see SegmentTask), phase 3 is
+  sequential and only touches the few cars at the ends of the links
+- cars see at most BOUNDARY_CELLS cells beyond the end (or before the start) of
+  their link, farther cars are not seen
+- every link and node has its own random streams derived from the seed of the
+  network, so a run is reproduced from its seed whatever the number of threads
+==============================================================================*/
+
+public class RoadNetwork implements SegmentTask.Segmented {
+
+    public static final int BOUNDARY_CELLS = CompactLanes.CELLS_PER_WORD;
+
+    // phases of a step, see nextState()
+    private static final int PHASE_EXCHANGE = 0;
+    private static final int PHASE_MOVE = 1;
+    private static final int PHASE_FINISH = 2;
+
+    private static final class Node {
+        int[] incoming = new int[0];            // links, arrays so a step does not allocate
+        int[] outgoing = new int[0];
+        double[] weights = new double[0];       // turning weights of the outgoing links
+        double totalWeight = 0;
+        double inflowRate = 0;                  // probability that a new car arrives in a step
+        long queued = 0;                        // arrived cars waiting to enter
+        long outflow = 0;                       // cars which left the network at the node
+        final long stream;                      // routing of the cars and arrivals
+
+        Node(long stream) {
+            this.stream = stream;
+        }
+    }
+
+    private final long seed;
+    private final long networkStream;
+    private final ArrayList<Node> nodes = new ArrayList<>();
+    private final ArrayList<RoadNS> links = new ArrayList<>();
+    private final ArrayList<Integer> fromNode = new ArrayList<>();
+    private final ArrayList<Integer> toNode = new ArrayList<>();
+    private final ArrayList<int[]> enteredCells = new ArrayList<>();   // per link and lane: bit c set if a car entered cell c in the step
+    private ForkJoinPool pool = null;           // null while there is a single link
+    private int nextCarID = 0;
+    private int step = 0;
+
+    public RoadNetwork(long seed) {
+        this.seed = seed;
+        networkStream = RandomStreams.split(seed, RandomStreams.STREAM_NETWORK);
+    }
+
+    /*
+    Output:
+        the index of the new node
+    */
+    public int addNode() {
+        nodes.add(new Node(RandomStreams.split(networkStream, nodes.size())));
+        return nodes.size() - 1;
+    }
+
+    public int addLink(SimulationConfig config, int from, int to) {
+        return addLink(config, from, to, 1);
+    }
+
+    /*
+    Add a link with the cars of its configuration (none if it has no car), from a node to a node
+    Input:
+        turningWeight   the share of the cars leaving node from that take this link, relative to the other links leaving it
+    Output:
+        the index of the new link
+    */
+    public int addLink(SimulationConfig config, int from, int to, double turningWeight) {
+        if (from < 0 || from >= nodes.size() || to < 0 || to >= nodes.size())
+            throw new IllegalArgumentException("Unknown node: " + from + " -> " + to);
+        if (config.distanceToLookAhead >= BOUNDARY_CELLS)
+            throw new IllegalArgumentException("Distance to look ahead of a link is limited to " + (BOUNDARY_CELLS - 1));
+        if (turningWeight <= 0)
+            throw new IllegalArgumentException("Turning weight must be positive: " + turningWeight);
+
+        int link = links.size();
+        links.add(new RoadNS(config, RandomStreams.split(networkStream, -1 - link), true, nextCarID, BOUNDARY_CELLS));
+        nextCarID += config.getTotalCars();
+        fromNode.add(from);
+        toNode.add(to);
+        enteredCells.add(new int[config.numLanes + 1]);
+        Node start = nodes.get(from), end = nodes.get(to);
+        start.outgoing = append(start.outgoing, link);
+        start.weights = Arrays.copyOf(start.weights, start.outgoing.length);
+        start.weights[start.outgoing.length - 1] = turningWeight;
+        start.totalWeight += turningWeight;
+        end.incoming = append(end.incoming, link);
+        pool = links.size() > 1 ? ForkJoinPool.commonPool() : null;
+        return link;
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] result = Arrays.copyOf(array, array.length + 1);
+        result[array.length] = value;
+        return result;
+    }
+
+    /*
+    Let new cars into the network at a node, e.g. an on-ramp
+    Input:
+        carsPerStep     probability that a car arrives in a step, in [0, 1]
+    */
+    public void setInflow(int node, double carsPerStep) {
+        if (nodes.get(node).outgoing.length == 0)
+            throw new IllegalArgumentException("Node " + node + " has no outgoing link");
+        nodes.get(node).inflowRate = carsPerStep;
+    }
+
+    public void nextState() {
+        SimulationEvents.Step event = SimulationEvents.beginStep();      // null unless a recording enables it
+        SegmentTask.runPhase(pool, this, PHASE_EXCHANGE, links.size());
+        SegmentTask.runPhase(pool, this, PHASE_MOVE, links.size());
+        transferCars();
+        letCarsIn();
+        SegmentTask.runPhase(pool, this, PHASE_FINISH, links.size());
+        step++;
+        long cars = getNumCars();
+        SimulationTelemetry.stepDone(cars);
+        if (event != null && event.shouldCommit()) {
+            long scan = 0;
+            for (RoadNS road : links) {
+                event.laneChanges += road.getLastStepLaneChanges();
+                event.distance += road.getLastStepDistance();
+                scan += road.getLastStepScannedCells();
+            }
+            event.step = step;
+            event.cars = cars;
+            event.segments = links.size();
+            event.meanScanLength = cars == 0 ? 0 : scan / (double) cars;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void runPhase(int phase, int link) {
+        RoadNS road = links.get(link);
+        switch (phase) {
+            case PHASE_EXCHANGE:
+                CompactLanes ahead = road.getAheadCells();
+                CompactLanes behind = road.getBehindCells();
+                ahead.clear(0, BOUNDARY_CELLS);
+                behind.clear(0, BOUNDARY_CELLS);
+                for (int next : nodes.get(toNode.get(link)).outgoing) {
+                    CompactLanes lanes = links.get(next).getLanes();
+                    int count = Math.min(BOUNDARY_CELLS, lanes.size());
+                    for (int lane = RoadNS.RIGHT_LANE; lane <= ahead.numLanes(); lane++)
+                        ahead.copyCells(lanes, Math.min(lane, lanes.numLanes()), 0, lane, 0, count);
+                }
+                for (int previous : nodes.get(fromNode.get(link)).incoming) {
+                    CompactLanes lanes = links.get(previous).getLanes();
+                    int count = Math.min(BOUNDARY_CELLS, lanes.size());
+                    for (int lane = RoadNS.RIGHT_LANE; lane <= lanes.numLanes(); lane++)
+                        behind.copyCells(lanes, lane, lanes.size() - count, Math.min(lane, behind.numLanes()), BOUNDARY_CELLS - count, count);
+                }
+                ahead.updateSummary();
+                behind.updateSummary();
+                break;
+
+            case PHASE_MOVE:
+                road.moveCars();
+                break;
+
+            case PHASE_FINISH:
+                road.finishStep();
+                break;
+        }
+    }
+
+    /*
+    Move the cars which passed the end of their link to the next link, or out of the network
+    */
+    private void transferCars() {
+        for (int link = 0; link < links.size(); link++) {
+            Arrays.fill(enteredCells.get(link), 0);
+        }
+
+        for (int link = 0; link < links.size(); link++) {
+            RoadNS road = links.get(link);
+            Node node = nodes.get(toNode.get(link));
+            VehicleStore cars = road.getVehicles();
+            int roadSize = road.getConfig().roadSize;
+
+            for (int s = 0; s < road.getNumSegments(); s++) {
+                for (int i = 0; i < road.getNumExits(s); i++) {
+                    int slot = road.getExitSlot(s, i);
+                    if (node.outgoing.length == 0) {
+                        node.outflow++;
+                        continue;
+                    }
+
+                    int next = chooseLink(node, RandomStreams.nextFloat(RandomStreams.split(node.stream, cars.id[slot]), step));
+                    RoadNS target = links.get(next);
+                    int lane = Math.min(cars.lane[slot], target.getConfig().numLanes);
+                    int cell = cars.position[slot] - roadSize;
+                    int[] entered = enteredCells.get(next);
+                    if (cell >= target.getConfig().roadSize || (entered[lane] & (1 << cell)) != 0) {
+                        road.holdAtEnd(slot);                                   // the cell is taken, the car waits
+                        continue;
+                    }
+                    entered[lane] |= 1 << cell;
+                    target.enterCar(cars, slot, lane, cell, cars.speed[slot], cars.traveledDistance[slot]);
+                }
+            }
+        }
+    }
+
+    /*
+    New cars arrive at the sources, and enter on the first cell of the rightmost free lane of an outgoing link
+    */
+    private void letCarsIn() {
+        for (int n = 0; n < nodes.size(); n++) {
+            Node node = nodes.get(n);
+            if (node.inflowRate <= 0) continue;
+            if (RandomStreams.nextFloat(node.stream, step) < node.inflowRate)
+                node.queued++;
+
+            while (node.queued > 0) {
+                int id = nextCarID;
+                int next = chooseLink(node, RandomStreams.nextFloat(RandomStreams.split(node.stream, id), step));
+                RoadNS target = links.get(next);
+                CompactLanes lanes = target.getLanes();
+                int[] entered = enteredCells.get(next);
+                int lane = RoadNS.RIGHT_LANE;
+                while (lane <= lanes.numLanes() && (lanes.isOccupied(lane, 0) || (entered[lane] & 1) != 0))
+                    lane++;
+                if (lane > lanes.numLanes()) break;                             // wait for the next step
+
+                float rand = RandomStreams.nextFloat(RandomStreams.split(node.stream, ~id), step);
+                int type = rand < target.getConfig().fastCarRatio ? RoadNS.TYPE_CAR_FAST : RoadNS.TYPE_CAR_SLOW;
+                entered[lane] |= 1;
+                target.enterNewCar(id, lane, 0, type);
+                nextCarID++;
+                node.queued--;
+            }
+        }
+    }
+
+    /*
+    Output:
+        the outgoing link of a node taken for a random number in [0, 1)
+    */
+    private int chooseLink(Node node, float rand) {
+        double r = rand * node.totalWeight;
+        for (int i = 0; i < node.outgoing.length; i++) {
+            r -= node.weights[i];
+            if (r < 0) return node.outgoing[i];
+        }
+        return node.outgoing[node.outgoing.length - 1];
+    }
+
+    /*==========================================================================
+    Getters
+    ==========================================================================*/
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /*
+    number of steps done so far
+    */
+    public int getStep() {
+        return step;
+    }
+
+    public int getNumNodes() {
+        return nodes.size();
+    }
+
+    public int getNumLinks() {
+        return links.size();
+    }
+
+    public RoadNS getLink(int link) {
+        return links.get(link);
+    }
+
+    public int getFromNode(int link) {
+        return fromNode.get(link);
+    }
+
+    public int getToNode(int link) {
+        return toNode.get(link);
+    }
+
+    /*
+    number of cars which left the network at a node so far
+    */
+    public long getOutflow(int node) {
+        return nodes.get(node).outflow;
+    }
+
+    /*
+    number of cars waiting to enter the network at a node
+    */
+    public long getQueued(int node) {
+        return nodes.get(node).queued;
+    }
+
+    /*
+    number of cars on all links
+    */
+    public long getNumCars() {
+        long total = 0;
+        for (int link = 0; link < links.size(); link++) {
+            total += links.get(link).getVehicles().size();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,60 @@
+package nsSimulation;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*==============================================================================
+Fork/join driver of the segmented update of a road
+- the road (and its vehicle store) is split into segments of consecutive cells
+- a step is a sequence of phases, every phase runs on all segments at once
+- the range of segments is split in halves until a single segment is left
+- without a pool, or with a single segment, the phase simply runs in a loop on
+  the calling thread and nothing is allocated
+==============================================================================*/
+
+class SegmentTask extends RecursiveAction {
+
+    /*
+    Implemented by the classes which split their work in segments
+    */
+    interface Segmented {
+        void runPhase(int phase, int segment);
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    private final Segmented target;
+    private final int phase;
+    private final int fromSegment;
+    private final int toSegment;
+
+    private SegmentTask(Segmented target, int phase, int fromSegment, int toSegment) {
+        this.target = target;
+        this.phase = phase;
+        this.fromSegment = fromSegment;
+        this.toSegment = toSegment;
+    }
+
+    /*
+    Run a phase on all segments and wait until every segment is done
+    */
+    static void runPhase(ForkJoinPool pool, Segmented target, int phase, int numSegments) {
+        if (pool == null || numSegments == 1) {
+            for (int segment = 0; segment < numSegments; segment++)
+                target.runPhase(phase, segment);
+        } else {
+            pool.invoke(new SegmentTask(target, phase, 0, numSegments));
+        }
+    }
+
+    @Override
+    protected void compute() {
+        if (toSegment - fromSegment == 1) {
+            target.runPhase(phase, fromSegment);
+        } else {
+            int middle = (fromSegment + toSegment) >>> 1;
+            invokeAll(new SegmentTask(target, phase, fromSegment, middle),
+                    new SegmentTask(target, phase, middle, toSegment));
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package nsSimulation;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*==============================================================================
+Sweep shared by several JVMs, on one host or on hosts with a shared file system
+- the grid of the sweep (every (configuration, repetition) in the order of add())
+  is written once to manifest.csv of the sweep directory: a stable ID per run
+  (a hash of SimulationConfig.parameters() and the repetition) and its shard, a
+  range of about runsPerShard runs which never splits the repetitions of a
+  configuration (so they can still run as replicas of one road)
+- queue.csv holds the state of every shard: open, claimed by a worker (with the
+  time of its last heartbeat) or done; it is only read and written while the
+  lock of queue.lock is held (FileChannel.lock()), so the workers claim
+  distinct shards
+- a worker runs the missing runs of its shard on its cores (SweepExecutor) and
+  appends every result to its own file of the shard, shard-<n>-<worker>.csv,
+  as soon as it is done (the ID of the run, then its row of simulations.csv):
+  a worker which dies loses no finished run, the runs already in a file of the
+  shard are not run again, and no file is written by two workers
+- a claim whose heartbeat is older than LEASE_MS is open again (its worker
+  died); the times of the heartbeats are those of the file system (fileTime()),
+  not of the hosts, whose clocks may differ
+- a worker whose heartbeat finds its shard taken over stops running it
+- merge() writes the rows of all shard files in the order of the manifest,
+  without the rows cut by a worker which died while writing them
+- every worker builds the same grid: with the same code and master seed, its IDs
+  are those of the manifest, otherwise it refuses to work; the master seed is
+  chosen once, by the first worker, and kept in master-seed.txt (masterSeed()),
+  so workers started together with random seeds agree on it
+Usage (merge only): java nsSimulation.ShardedSweep <sweep directory> simulations.csv
+==============================================================================*/
+
+public class ShardedSweep {
+
+    public static final long LEASE_MS = 10 * 60 * 1000;        // a claim without heartbeat for that long is open again
+    private static final long HEARTBEAT_MS = LEASE_MS / 4;
+
+    private static final String MANIFEST = "manifest.csv";
+    private static final String MANIFEST_HEADER = "id,shard,repetition,parameters";
+    private static final String QUEUE = "queue.csv";
+    private static final String LOCK = "queue.lock";
+    private static final String MASTER_SEED = "master-seed.txt";
+    private static final String CLOCK = "clock";
+    private static final int CSV_COLUMNS = SimulationResult.CSV_HEADER.split(",").length;
+    private static final String OPEN = "open";
+    private static final String CLAIMED = "claimed";
+    private static final String DONE = "done";
+
+    private interface Action<T> {
+        T run() throws IOException;
+    }
+
+    private final Path directory;
+    private final int runsPerShard;
+    private final String worker;                        // name of this worker in the queue and its shard files
+    private final List<SimulationConfig> configs = new ArrayList<>();      // per run, in the order of add()
+    private final List<Integer> repetitions = new ArrayList<>();
+    private final List<String> ids = new ArrayList<>();
+    private final List<Integer> shardOfRun = new ArrayList<>();
+    private int numShards = 0;
+    private int runsInLastShard = 0;
+    private ResultCache cache = null;
+    private SweepExecutor.ObserverFactory observers = null;
+
+    /*
+    Input:
+        directory       the sweep directory, created if needed, shared by all workers
+        runsPerShard    approximate number of runs per shard, the unit of work of a worker
+    */
+    public ShardedSweep(Path directory, int runsPerShard) {
+        if (runsPerShard < 1)
+            throw new IllegalArgumentException("Runs per shard must be positive: " + runsPerShard);
+        this.directory = directory;
+        this.runsPerShard = runsPerShard;
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        this.worker = (runtime.getName() + "-" + runtime.getStartTime()).replaceAll("[^A-Za-z0-9.-]", "_");    // pid@host, never reused
+    }
+
+    /*
+    Add a run to the grid, in the same order on every worker
+    */
+    public void add(SimulationConfig config, int repetition) {
+        boolean sameConfig = !configs.isEmpty() && configs.get(configs.size() - 1) == config;
+        if (numShards == 0 || (runsInLastShard >= runsPerShard && !sameConfig)) {
+            numShards++;
+            runsInLastShard = 0;
+        }
+        configs.add(config);
+        repetitions.add(repetition);
+        ids.add(runID(config, repetition));
+        shardOfRun.add(numShards - 1);
+        runsInLastShard++;
+    }
+
+    public int size() {
+        return configs.size();
+    }
+
+    /*
+    Look up the runs of the shards in a cache before running them, null for no cache
+    */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /*
+    Observe the runs of the shards, see SweepExecutor.setObservers()
+    */
+    public void setObservers(SweepExecutor.ObserverFactory observers) {
+        this.observers = observers;
+    }
+
+    public int getNumShards() {
+        return numShards;
+    }
+
+    /*
+    Output:
+        the stable ID of a run, the same in every JVM
+    */
+    public static String runID(SimulationConfig config, int repetition) {
+        long hash = 0xcbf29ce484222325L;                                // 64-bit FNV-1a
+        for (byte b : config.parameters().getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return String.format("%016x-%d", hash, repetition);
+    }
+
+    /*
+    Claim shards and run them until no shard is open (shards claimed by other live workers are left to them)
+    Output:
+        the number of runs done by this worker
+    */
+    public int work() throws IOException, InterruptedException, ExecutionException {
+        underLock(this::createOrCheckManifest);
+
+        int numRuns = 0;
+        Timer heartbeats = new Timer("sweep-heartbeat", true);
+        try {
+            int shard;
+            while ((shard = underLock(this::claim)) != -1) {
+                final int claimed = shard;
+                CompletableFuture<Void> lost = new CompletableFuture<>();
+                TimerTask heartbeat = new TimerTask() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (!underLock(() -> heartbeat(claimed)))
+                                lost.complete(null);
+                        } catch (IOException ex) {
+                            System.err.println("Heartbeat of shard " + claimed + " failed: " + ex);
+                        }
+                    }
+                };
+                heartbeats.schedule(heartbeat, HEARTBEAT_MS, HEARTBEAT_MS);
+                try {
+                    numRuns += runShard(shard, lost);
+                } finally {
+                    heartbeat.cancel();
+                }
+                if (lost.isDone())
+                    System.err.println("Shard " + claimed + " was taken over by another worker, " + worker + " stopped running it");
+                else
+                    underLock(() -> complete(claimed));
+            }
+        } finally {
+            heartbeats.cancel();
+        }
+        return numRuns;
+    }
+
+    /*
+    Output:
+        true if all shards are done, i.e. the results can be merged
+    */
+    public boolean isComplete() throws IOException {
+        return underLock(() -> {
+            for (String[] entry : readQueue()) {
+                if (!entry[1].equals(DONE)) return false;
+            }
+            return true;
+        });
+    }
+
+    /*
+    Run the runs of a shard which are not in its files yet, until they are done or the claim is lost
+    Input:
+        lost    completed when another worker took the shard over: the runs not started yet are
+                dropped, the results of the runs still running are not written
+    Output:
+        the number of runs written by this worker
+    */
+    private int runShard(int shard, CompletableFuture<Void> lost) throws IOException, InterruptedException, ExecutionException {
+        Path file = directory.resolve(shardFileName(shard, worker));
+        Set<String> done = readShardFiles(directory, shardFileName(shard, "*")).keySet();
+        List<String> pending = new ArrayList<>();
+        SweepExecutor executor = new SweepExecutor();
+        executor.setCache(cache);
+        executor.setObservers(observers);
+        for (int run = 0; run < size(); run++) {
+            if (shardOfRun.get(run) == shard && !done.contains(ids.get(run))) {
+                executor.add(configs.get(run), repetitions.get(run));
+                pending.add(ids.get(run));
+            }
+        }
+        if (TrafficSimulation.DEBUG >= 1)
+            System.out.println("Shard " + shard + ": " + pending.size() + " runs to do, " + done.size() + " already done");
+
+        AtomicInteger written = new AtomicInteger();
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            List<Future<SimulationResult>> results = executor.start((run, result) -> {
+                if (append(out, pending.get(run), result, lost))
+                    written.incrementAndGet();
+            });
+            lost.thenRun(executor::cancel);
+            for (Future<SimulationResult> result : results) {
+                try {
+                    result.get();
+                } catch (CancellationException ex) {
+                    // dropped, the claim was lost
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return written.get();
+    }
+
+    /*
+    One line per result, written at once so a worker which dies leaves at most a truncated last line
+    Output:
+        false if the line was not written, the claim of the shard being lost
+    */
+    private static boolean append(FileChannel out, String id, SimulationResult result, CompletableFuture<Void> lost) throws IOException {
+        ByteBuffer line = ByteBuffer.wrap((id + "," + result.toCsvRow() + "\n").getBytes(StandardCharsets.UTF_8));
+        synchronized (out) {
+            if (lost.isDone()) return false;
+            while (line.hasRemaining()) {
+                out.write(line);
+            }
+        }
+        return true;
+    }
+
+    /*==========================================================================
+    Files of the sweep directory, only touched while holding the lock
+    ==========================================================================*/
+
+    /*
+    Run an action while holding the lock of the sweep directory, against the other threads and JVMs
+    */
+    private <T> T underLock(Action<T> action) throws IOException {
+        return underLock(directory, action);
+    }
+
+    private static <T> T underLock(Path directory, Action<T> action) throws IOException {
+        Files.createDirectories(directory);
+        synchronized (ShardedSweep.class) {                             // a JVM may hold the lock of a file once only
+            try (FileChannel channel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    return action.run();
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    private Void createOrCheckManifest() throws IOException {
+        Path manifest = directory.resolve(MANIFEST);
+        if (!Files.exists(manifest)) {
+            List<String> lines = new ArrayList<>(size() + 1);
+            lines.add(MANIFEST_HEADER);
+            for (int run = 0; run < size(); run++) {
+                lines.add(ids.get(run) + "," + shardOfRun.get(run) + "," + repetitions.get(run) + "," + configs.get(run).parameters());
+            }
+            writeAtomically(manifest, lines);
+            List<String[]> queue = new ArrayList<>(numShards);
+            for (int shard = 0; shard < numShards; shard++) {
+                queue.add(new String[] {Integer.toString(shard), OPEN, "", "0"});
+            }
+            writeQueue(queue);
+            return null;
+        }
+
+        List<String[]> runs = readManifest(directory);
+        boolean same = runs.size() == size();
+        for (int run = 0; same && run < size(); run++) {
+            same = runs.get(run)[0].equals(ids.get(run)) && Integer.parseInt(runs.get(run)[1]) == shardOfRun.get(run);
+        }
+        if (!same)
+            throw new IllegalStateException(directory + " holds the manifest of another sweep (other grid, master seed or shards)");
+        return null;
+    }
+
+    /*
+    Output:
+        the first shard which is open, or claimed by a worker without heartbeat for LEASE_MS, -1 if none
+    */
+    private Integer claim() throws IOException {
+        List<String[]> queue = readQueue();
+        long now = fileTime();
+        for (String[] entry : queue) {
+            if (entry[1].equals(OPEN) || (entry[1].equals(CLAIMED) && now - Long.parseLong(entry[3]) > LEASE_MS)) {
+                entry[1] = CLAIMED;
+                entry[2] = worker;
+                entry[3] = Long.toString(now);
+                writeQueue(queue);
+                return Integer.parseInt(entry[0]);
+            }
+        }
+        return -1;
+    }
+
+    /*
+    Renew the claim of a shard, unless another worker took it over
+    Output:
+        false if the claim was lost
+    */
+    private Boolean heartbeat(int shard) throws IOException {
+        List<String[]> queue = readQueue();
+        String[] entry = queue.get(shard);
+        if (!entry[1].equals(CLAIMED) || !entry[2].equals(worker))
+            return false;
+        entry[3] = Long.toString(fileTime());
+        writeQueue(queue);
+        return true;
+    }
+
+    /*
+    All runs of the shard are in its file, even if another worker took it over in between
+    */
+    private Void complete(int shard) throws IOException {
+        List<String[]> queue = readQueue();
+        String[] entry = queue.get(shard);
+        entry[1] = DONE;
+        entry[3] = Long.toString(fileTime());
+        writeQueue(queue);
+        return null;
+    }
+
+    /*
+    Output:
+        the time of the file system in ms, the same for the workers of all hosts: the modification time
+        of a file written now (by the file server for a network file system)
+    */
+    private long fileTime() throws IOException {
+        Path clock = directory.resolve(CLOCK);
+        Files.write(clock, worker.getBytes(StandardCharsets.UTF_8));
+        return Files.getLastModifiedTime(clock).toMillis();
+    }
+
+    private List<String[]> readQueue() throws IOException {
+        List<String[]> queue = new ArrayList<>();
+        for (String line : Files.readAllLines(directory.resolve(QUEUE), StandardCharsets.UTF_8)) {
+            queue.add(line.split(",", -1));                             // shard, state, worker, heartbeat
+        }
+        return queue;
+    }
+
+    private void writeQueue(List<String[]> queue) throws IOException {
+        List<String> lines = new ArrayList<>(queue.size());
+        for (String[] entry : queue) {
+            lines.add(String.join(",", entry));
+        }
+        writeAtomically(directory.resolve(QUEUE), lines);
+    }
+
+    /*
+    Write a file next to its destination, then rename it: readers never see a partial file
+    */
+    private static void writeAtomically(Path file, List<String> lines) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+    Output:
+        the name of the file of a worker for a shard, a glob of the files of the shard for worker "*"
+    */
+    private static String shardFileName(int shard, String worker) {
+        return String.format("shard-%05d-%s.csv", shard, worker);
+    }
+
+    /*
+    Output:
+        the runs of the manifest, in the order of the grid: id, shard, repetition, parameters
+    */
+    private static List<String[]> readManifest(Path directory) throws IOException {
+        List<String> lines = Files.readAllLines(directory.resolve(MANIFEST), StandardCharsets.UTF_8);
+        List<String[]> runs = new ArrayList<>(lines.size());
+        for (int i = 1; i < lines.size(); i++) {
+            runs.add(lines.get(i).split(",", 4));
+        }
+        return runs;
+    }
+
+    /*
+    Input:
+        glob        the names of the shard files, e.g. shardFileName(shard, "*")
+    Output:
+        the rows of the shard files per run ID, without the malformed rows: a last line without end
+        (its worker died while writing it, or still writes it) or a row without all columns
+    */
+    private static Map<String, String> readShardFiles(Path directory, String glob) throws IOException {
+        Map<String, String> rows = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, glob)) {
+            for (Path file : files) {
+                byte[] bytes = Files.readAllBytes(file);
+                int end = bytes.length;
+                while (end > 0 && bytes[end - 1] != '\n') end--;
+                for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+                    int comma = line.indexOf(',');
+                    if (comma > 0 && line.split(",", -1).length == CSV_COLUMNS + 1)
+                        rows.put(line.substring(0, comma), line.substring(comma + 1));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /*==========================================================================
+    Results
+    ==========================================================================*/
+
+    /*
+    Write the rows of all shard files to simulations.csv, in the order of the manifest
+    Output:
+        the number of rows written, less than the runs of the manifest if some are not done
+    */
+    public static int merge(Path directory, Path csv) throws IOException {
+        List<String[]> runs = readManifest(directory);
+        Map<String, String> rows = readShardFiles(directory, "shard-*.csv");
+
+        List<String> lines = new ArrayList<>(runs.size() + 1);
+        lines.add(SimulationResult.CSV_HEADER);
+        Set<String> written = new HashSet<>();                         // a run done twice (a shard taken over) is written once
+        for (String[] run : runs) {
+            String row = rows.get(run[0]);
+            if (row != null && written.add(run[0])) lines.add(row);
+        }
+        Files.write(csv, lines, StandardCharsets.UTF_8);
+        return lines.size() - 1;
+    }
+
+    /*
+    Output:
+        the master seed of the sweep of a directory, the given one if no worker chose it yet (it is then
+        kept for the next workers); to call before building the grid, every worker must use it
+    */
+    public static long masterSeed(Path directory, long defaultSeed) throws IOException {
+        return underLock(directory, () -> {
+            Path file = directory.resolve(MASTER_SEED);
+            if (Files.exists(file)) {
+                List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                if (!lines.isEmpty() && !lines.get(0).trim().isEmpty())
+                    return Long.parseLong(lines.get(0).trim());
+            }
+            writeAtomically(file, Collections.singletonList(Long.toString(defaultSeed)));
+            return defaultSeed;
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: ShardedSweep <sweep directory> <csv file>");
+            return;
+        }
+        int rows = merge(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println(rows + " of " + readManifest(Paths.get(args[0])).size() + " rows written to " + args[1]);
+    }
+}
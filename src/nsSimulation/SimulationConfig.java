@@ -0,0 +1,157 @@
+package nsSimulation;
+
+/*==============================================================================
+Immutable configuration of one simulation run
+- a snapshot of the parameters in TrafficSimulation, taken with fromGlobals()
+- it is passed into the road and the rules, so several runs with different
+  parameters can be executed at the same time on different threads
+==============================================================================*/
+
+public final class SimulationConfig {
+
+    // road
+    public final int roadSize;                          // number of cells
+    public final int numLanes;                          // lane 1 is the rightmost lane
+    public final int numFastCars;
+    public final int numSlowCars;                       // the broken car is counted as a slow car
+    public final boolean hasBrokenCar;
+    public final int numberOfIterations;               // the max number of iterations if adaptiveRunLength
+    public final boolean adaptiveRunLength;
+    public final int equilibriumWindow;
+    public final double equilibriumTolerance;
+    public final int stepSegments;                      // number of segments of the road updated in parallel in a step
+    public final boolean vectorKernel;                  // see VelocityKernel
+    public final int replicas;                          // repetitions run together by SweepExecutor, see RoadNS(config, seeds)
+    public final long masterSeed;                       // the seed of every repetition is derived from it
+
+    // parameter of NS model
+    public final int maxAcceleration;
+    public final int maxSpeedFastCar;
+    public final int maxSpeedSlowCar;
+    public final double probabilityFluctuation;
+    public final int distanceToLookAhead;
+    public final int slack;
+    public final boolean applySymmetricRule;
+
+    // broken car
+    public final double breakingDownProbability;
+    public final double gettingRepairedProbability;
+
+    // only reported in the results
+    public final double density;
+    public final double fastCarRatio;
+    public final boolean globalSpeedRule;
+    public final int globalMaxSpeed;
+
+    private SimulationConfig() {
+        roadSize = TrafficSimulation.ROAD_SIZE;
+        numLanes = TrafficSimulation.NUM_LANES;
+        numFastCars = TrafficSimulation.NUM_FAST_CARS;
+        numSlowCars = TrafficSimulation.NUM_SLOW_CARS;
+        hasBrokenCar = TrafficSimulation.HAS_BROKEN_CAR;
+        numberOfIterations = TrafficSimulation.NUMBER_OF_ITERATIONS;
+        adaptiveRunLength = TrafficSimulation.ADAPTIVE_RUN_LENGTH;
+        equilibriumWindow = TrafficSimulation.EQUILIBRIUM_WINDOW;
+        equilibriumTolerance = TrafficSimulation.EQUILIBRIUM_TOLERANCE;
+        stepSegments = TrafficSimulation.STEP_SEGMENTS;
+        vectorKernel = TrafficSimulation.VECTOR_KERNEL;
+        replicas = TrafficSimulation.REPLICAS;
+        masterSeed = TrafficSimulation.MASTER_SEED;
+
+        maxAcceleration = TrafficSimulation.MAX_ACCELERATION;
+        maxSpeedFastCar = TrafficSimulation.MAX_SPEED_FAST_CAR;
+        maxSpeedSlowCar = TrafficSimulation.MAX_SPEED_SLOW_CAR;
+        probabilityFluctuation = TrafficSimulation.PROBABILITY_FLUCTUATION;
+        distanceToLookAhead = TrafficSimulation.DISTANCE_TO_LOOK_AHEAD;
+        slack = TrafficSimulation.SLACK;
+        applySymmetricRule = TrafficSimulation.APPLY_SYMMETRIC_RULE;
+
+        breakingDownProbability = TrafficSimulation.BREAKING_DOWN_PROBABILITY;
+        gettingRepairedProbability = TrafficSimulation.GETTING_REPAIRED_PROBABILITY;
+
+        density = TrafficSimulation.DENSITY;
+        fastCarRatio = TrafficSimulation.FAST_CAR_RATIO;
+        globalSpeedRule = TrafficSimulation.GLOBAL_SPEED_RULE;
+        globalMaxSpeed = TrafficSimulation.GLOBAL_MAX_SPEED;
+    }
+
+    /*
+    Take a snapshot of the current values of the parameters in TrafficSimulation
+    */
+    public static SimulationConfig fromGlobals() {
+        return new SimulationConfig();
+    }
+
+    /*
+    Seed of a repetition: the same for every configuration of a sweep (common random numbers),
+    so the differences between configurations are not hidden by the noise of the seeds
+    */
+    public long getRunSeed(int repetition) {
+        return RandomStreams.split(RandomStreams.split(masterSeed, RandomStreams.STREAM_SWEEP), repetition);
+    }
+
+    /*
+    All parameters which determine the results of a run, in a fixed order (not the way it is
+    computed: segments, kernel and replicas give the same results), e.g. to identify the runs
+    of a sweep (see ShardedSweep)
+    */
+    public String parameters() {
+        return "roadSize=" + roadSize + ";numLanes=" + numLanes + ";numFastCars=" + numFastCars + ";numSlowCars=" + numSlowCars
+                + ";hasBrokenCar=" + hasBrokenCar + ";numberOfIterations=" + numberOfIterations
+                + ";adaptiveRunLength=" + adaptiveRunLength + ";equilibriumWindow=" + equilibriumWindow
+                + ";equilibriumTolerance=" + equilibriumTolerance + ";masterSeed=" + masterSeed
+                + ";maxAcceleration=" + maxAcceleration + ";maxSpeedFastCar=" + maxSpeedFastCar + ";maxSpeedSlowCar=" + maxSpeedSlowCar
+                + ";probabilityFluctuation=" + probabilityFluctuation + ";distanceToLookAhead=" + distanceToLookAhead
+                + ";slack=" + slack + ";applySymmetricRule=" + applySymmetricRule
+                + ";breakingDownProbability=" + breakingDownProbability + ";gettingRepairedProbability=" + gettingRepairedProbability
+                + ";density=" + density + ";fastCarRatio=" + fastCarRatio
+                + ";globalSpeedRule=" + globalSpeedRule + ";globalMaxSpeed=" + globalMaxSpeed;
+    }
+
+    /*
+    The parameters which the outcome of a run with a given seed depends on, in a fixed order,
+    e.g. to find the results of a run in a ResultCache. Only reported here: the density, fast
+    car ratio and global speed rule. Not read by the road for the run:
+    - the max speed of fast cars without fast car on a single lane (it bounds the initial speed
+      of slow cars, so only if it is at least that of slow cars; on several lanes it is the gap
+      needed behind to change lane)
+    - the max speed of slow cars without slow car (the broken car is one)
+    - the rules of changing lane on a single lane
+    - the probabilities of the broken car without broken car
+    - the criterion of equilibrium without adaptive run length
+    */
+    public String outcomeParameters() {
+        boolean hasSlowCars = numSlowCars > 0;
+        boolean changesLane = numLanes > 1;
+        StringBuilder sb = new StringBuilder();
+        sb.append("roadSize=").append(roadSize).append(";numLanes=").append(numLanes)
+                .append(";numFastCars=").append(numFastCars).append(";numSlowCars=").append(numSlowCars)
+                .append(";numberOfIterations=").append(numberOfIterations)
+                .append(";maxAcceleration=").append(maxAcceleration).append(";probabilityFluctuation=").append(probabilityFluctuation);
+        if (numFastCars > 0 || changesLane || maxSpeedFastCar < maxSpeedSlowCar)
+            sb.append(";maxSpeedFastCar=").append(maxSpeedFastCar);
+        if (hasSlowCars)
+            sb.append(";maxSpeedSlowCar=").append(maxSpeedSlowCar);
+        if (changesLane)
+            sb.append(";distanceToLookAhead=").append(distanceToLookAhead).append(";slack=").append(slack)
+                    .append(";applySymmetricRule=").append(applySymmetricRule);
+        if (hasBrokenCar && hasSlowCars)
+            sb.append(";hasBrokenCar=true;breakingDownProbability=").append(breakingDownProbability)
+                    .append(";gettingRepairedProbability=").append(gettingRepairedProbability);
+        if (adaptiveRunLength)
+            sb.append(";adaptiveRunLength=true;equilibriumWindow=").append(equilibriumWindow)
+                    .append(";equilibriumTolerance=").append(equilibriumTolerance);
+        return sb.toString();
+    }
+
+    public int getTotalCars() {
+        return numFastCars + numSlowCars;
+    }
+
+    /*
+    Rough estimate of the work of one run (road size x cars x iterations), used to schedule long runs first
+    */
+    public long estimatedCost() {
+        return (long) roadSize * Math.max(getTotalCars(), 1) * numberOfIterations;
+    }
+}
@@ -0,0 +1,99 @@
+package nsSimulation;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*==============================================================================
+Java Flight Recorder events of the simulation, recorded with the usual JDK
+tools, e.g. java -XX:StartFlightRecording:filename=sweep.jfr,settings=profile
+or jcmd <pid> JFR.start, then read with JDK Mission Control or jfr print
+--events nsSimulation.Step sweep.jfr
+- Step: one step of a road (all its replicas) or of a network, with the lane
+  changes and the mean distance between a car and the car ahead on its lane,
+  i.e. how far the search of the neighbours goes
+- Run: one job of a sweep, i.e. the repetitions of a configuration run as the
+  replicas of one road, from the creation of the road to the measures
+- the events cost nothing when no recording is running; Step is disabled by
+  default (one event per step of every run), enable it for a recording with
+  e.g. -XX:StartFlightRecording:...,+nsSimulation.Step#enabled=true (JDK 17)
+  or a custom .jfc; a Step is only created if a recording enables it
+  (beginStep()), so the steps allocate nothing otherwise
+==============================================================================*/
+
+final class SimulationEvents {
+
+    private static final EventType STEP = EventType.getEventType(Step.class);
+
+    private SimulationEvents() {
+    }
+
+    /*
+    Output:
+        a Step event begun now, null if no recording enables Step
+    */
+    static Step beginStep() {
+        if (!STEP.isEnabled()) return null;
+        Step event = new Step();
+        event.begin();
+        return event;
+    }
+
+    @Name("nsSimulation.Step")
+    @Label("Simulation Step")
+    @Category({"N98", "Simulation"})
+    @Description("One step of a road or of a network")
+    @StackTrace(false)
+    @Enabled(false)
+    static final class Step extends Event {
+
+        @Label("Step")
+        int step;
+
+        @Label("Cars")
+        long cars;
+
+        @Label("Segments")
+        @Description("Segments of the road (or links of the network) updated in parallel")
+        int segments;
+
+        @Label("Lane Changes")
+        int laneChanges;
+
+        @Label("Mean Scan Length")
+        @Description("Mean number of empty cells between a car and the car ahead on its lane, at most the road size")
+        double meanScanLength;
+
+        @Label("Distance")
+        @Description("Cells driven by all cars in the step")
+        long distance;
+    }
+
+    @Name("nsSimulation.Run")
+    @Label("Simulation Run")
+    @Category({"N98", "Simulation"})
+    @Description("Repetitions of a configuration of a sweep, run as the replicas of one road")
+    @StackTrace(false)
+    static final class Run extends Event {
+
+        @Label("Configuration")
+        String configuration;
+
+        @Label("First Repetition")
+        int firstRepetition;
+
+        @Label("Replicas")
+        int replicas;
+
+        @Label("Steps")
+        int steps;
+
+        @Label("Cars")
+        int cars;
+    }
+}
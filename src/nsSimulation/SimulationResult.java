@@ -0,0 +1,167 @@
+package nsSimulation;
+
+import java.nio.ByteBuffer;
+
+/*==============================================================================
+Measures of one simulation run, together with the parameters they belong to
+- one row of simulations.csv (toCsvRow()), or one fixed-width binary record of
+  RECORD_SIZE bytes (writeTo() / readFrom(), see BinaryResultSink)
+- the distances are summed in long, so long runs on long roads do not overflow
+==============================================================================*/
+
+public final class SimulationResult {
+
+    public static final String CSV_HEADER = "model, road_block, max_speed_slow, max_speed_fast, fast_car_ratio, density, total_all_cars_distance, total_slow_cars_distance, total_fast_cars_distance, worst_case_distance_slow_cars, worst_cast_distance_fast_cars, best_case_distance_slow_car, best_case_distance_fast_car,num_slow_cars,num_fast_cars,global_speed_rule,speed_slow,speed_fast,repetition,slack,distance_look_ahead,seed,warm_up_steps,measurement_steps";
+
+    // flags byte, 4 speed bytes, 11 ints, 2 doubles, 3 longs
+    public static final int RECORD_SIZE = 1 + 4 + 11 * 4 + 2 * 8 + 3 * 8;
+
+    private static final int FLAG_ROAD_BLOCK = 1;
+    private static final int FLAG_GLOBAL_SPEED_RULE = 2;
+
+    // parameters of the run
+    public final boolean roadBlock;                     // the run has a broken car
+    public final double fastCarRatio;
+    public final double density;
+    public final boolean globalSpeedRule;
+    public final int speedSlow;                         // max speed of slow and fast cars
+    public final int speedFast;
+    public final int slack;
+    public final int distanceToLookAhead;
+    public final int repetition;
+    public final long seed;
+
+    // measures, the broken car is not counted
+    public final int maxSpeedSlow;                      // max speed reached by slow and fast cars, -1 if no such car
+    public final int maxSpeedFast;
+    public final long totalSlowDistance;
+    public final long totalFastDistance;
+    public final int worstDistanceSlow;                 // 999999999 if no such car
+    public final int worstDistanceFast;
+    public final int bestDistanceSlow;                  // -1 if no such car
+    public final int bestDistanceFast;
+    public final int numSlowCars;
+    public final int numFastCars;
+    public final int warmUpSteps;                       // steps before the measures started
+    public final int measurementSteps;                  // steps measured
+
+    SimulationResult(boolean roadBlock, double fastCarRatio, double density, boolean globalSpeedRule, int speedSlow, int speedFast,
+            int slack, int distanceToLookAhead, int repetition, long seed,
+            int maxSpeedSlow, int maxSpeedFast, long totalSlowDistance, long totalFastDistance,
+            int worstDistanceSlow, int worstDistanceFast, int bestDistanceSlow, int bestDistanceFast, int numSlowCars, int numFastCars,
+            int warmUpSteps, int measurementSteps) {
+        this.roadBlock = roadBlock;
+        this.fastCarRatio = fastCarRatio;
+        this.density = density;
+        this.globalSpeedRule = globalSpeedRule;
+        this.speedSlow = speedSlow;
+        this.speedFast = speedFast;
+        this.slack = slack;
+        this.distanceToLookAhead = distanceToLookAhead;
+        this.repetition = repetition;
+        this.seed = seed;
+        this.maxSpeedSlow = maxSpeedSlow;
+        this.maxSpeedFast = maxSpeedFast;
+        this.totalSlowDistance = totalSlowDistance;
+        this.totalFastDistance = totalFastDistance;
+        this.worstDistanceSlow = worstDistanceSlow;
+        this.worstDistanceFast = worstDistanceFast;
+        this.bestDistanceSlow = bestDistanceSlow;
+        this.bestDistanceFast = bestDistanceFast;
+        this.numSlowCars = numSlowCars;
+        this.numFastCars = numFastCars;
+        this.warmUpSteps = warmUpSteps;
+        this.measurementSteps = measurementSteps;
+    }
+
+    /*
+    Output:
+        the same measures as the result of another run with the same outcome (see ResultCache),
+        with the parameters of that run
+    */
+    SimulationResult forRun(SimulationConfig config, int repetition, long seed) {
+        return new SimulationResult(config.breakingDownProbability != 0, config.fastCarRatio, config.density, config.globalSpeedRule,
+                config.maxSpeedSlowCar, config.maxSpeedFastCar, config.slack, config.distanceToLookAhead, repetition, seed,
+                maxSpeedSlow, maxSpeedFast, totalSlowDistance, totalFastDistance,
+                worstDistanceSlow, worstDistanceFast, bestDistanceSlow, bestDistanceFast, numSlowCars, numFastCars,
+                warmUpSteps, measurementSteps);
+    }
+
+    public long getTotalDistance() {
+        return totalSlowDistance + totalFastDistance;
+    }
+
+    /*
+    Output:
+        the row of simulations.csv, columns as in CSV_HEADER
+    */
+    public String toCsvRow() {
+        return ("NS," + (roadBlock ? "1" : "0") + "," + maxSpeedSlow + "," + maxSpeedFast + "," +
+                fastCarRatio + "," + density + "," + getTotalDistance() + "," + totalSlowDistance + "," +
+                totalFastDistance + "," + worstDistanceSlow + "," + worstDistanceFast + "," + bestDistanceSlow + "," + bestDistanceFast + "," + numSlowCars + "," +
+                numFastCars + "," + globalSpeedRule + "," + speedSlow + "," +
+                speedFast + "," + repetition + "," + slack + "," + distanceToLookAhead + "," + seed + "," +
+                warmUpSteps + "," + measurementSteps);
+    }
+
+    /*
+    Append the binary record of the result (RECORD_SIZE bytes) to a buffer
+    The speeds take one byte each, they are at most CompactLanes.MAX_SPEED
+    */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put((byte) ((roadBlock ? FLAG_ROAD_BLOCK : 0) | (globalSpeedRule ? FLAG_GLOBAL_SPEED_RULE : 0)));
+        buffer.put((byte) speedSlow);
+        buffer.put((byte) speedFast);
+        buffer.put((byte) maxSpeedSlow);
+        buffer.put((byte) maxSpeedFast);
+        buffer.putInt(slack);
+        buffer.putInt(distanceToLookAhead);
+        buffer.putInt(repetition);
+        buffer.putInt(worstDistanceSlow);
+        buffer.putInt(worstDistanceFast);
+        buffer.putInt(bestDistanceSlow);
+        buffer.putInt(bestDistanceFast);
+        buffer.putInt(numSlowCars);
+        buffer.putInt(numFastCars);
+        buffer.putInt(warmUpSteps);
+        buffer.putInt(measurementSteps);
+        buffer.putDouble(fastCarRatio);
+        buffer.putDouble(density);
+        buffer.putLong(totalSlowDistance);
+        buffer.putLong(totalFastDistance);
+        buffer.putLong(seed);
+    }
+
+    /*
+    Read a record written by writeTo()
+    */
+    public static SimulationResult readFrom(ByteBuffer buffer) {
+        int flags = buffer.get();
+        int speedSlow = buffer.get();
+        int speedFast = buffer.get();
+        int maxSpeedSlow = buffer.get();
+        int maxSpeedFast = buffer.get();
+        int slack = buffer.getInt();
+        int distanceToLookAhead = buffer.getInt();
+        int repetition = buffer.getInt();
+        int worstDistanceSlow = buffer.getInt();
+        int worstDistanceFast = buffer.getInt();
+        int bestDistanceSlow = buffer.getInt();
+        int bestDistanceFast = buffer.getInt();
+        int numSlowCars = buffer.getInt();
+        int numFastCars = buffer.getInt();
+        int warmUpSteps = buffer.getInt();
+        int measurementSteps = buffer.getInt();
+        double fastCarRatio = buffer.getDouble();
+        double density = buffer.getDouble();
+        long totalSlowDistance = buffer.getLong();
+        long totalFastDistance = buffer.getLong();
+        long seed = buffer.getLong();
+
+        return new SimulationResult((flags & FLAG_ROAD_BLOCK) != 0, fastCarRatio, density, (flags & FLAG_GLOBAL_SPEED_RULE) != 0,
+                speedSlow, speedFast, slack, distanceToLookAhead, repetition, seed,
+                maxSpeedSlow, maxSpeedFast, totalSlowDistance, totalFastDistance,
+                worstDistanceSlow, worstDistanceFast, bestDistanceSlow, bestDistanceFast, numSlowCars, numFastCars,
+                warmUpSteps, measurementSteps);
+    }
+}
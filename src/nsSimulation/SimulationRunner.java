@@ -0,0 +1,216 @@
+package nsSimulation;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/*==============================================================================
+Headless runner of one simulation
+- a pure step loop on a road followed by the computation of the measures
+- it never touches java.awt or javax.swing, so it runs on servers without a
+  display; the animation (AnimatedSimulation) is an optional observer
+- it may run several repetitions of a configuration at once, as the replicas
+  of one road (see RoadNS(config, seeds)): one row of measures per replica
+- the measures are read from the statistics the road keeps while the cars
+  move (CarStatistics), so they may be asked at any step for the same cost
+==============================================================================*/
+
+public class SimulationRunner {
+
+    /*
+    Notified after every step of the simulation, e.g. to draw the road
+    */
+    public interface Observer {
+        void stepDone(RoadNS road, int iteration);
+    }
+
+    private final SimulationConfig config;
+    private final RoadNS road;
+    private final ArrayList<Observer> observers = new ArrayList<>();
+    private Path checkpointFile;                        // null if no checkpoint is written
+    private int checkpointInterval;
+
+    /*
+    Create the road of a run
+    Input:
+        config      the parameters of the run, including the number of iterations
+        seed        the seed of the run, the run is reproduced by running it again with the same seed
+    */
+    public SimulationRunner(SimulationConfig config, long seed) {
+        this.config = config;
+        this.road = new RoadNS(config, seed);
+    }
+
+    /*
+    Create the road of several runs advanced in lockstep, e.g. the repetitions of a configuration
+    Input:
+        seeds       the seed of every run, each run gives the same measures as SimulationRunner(config, seed)
+    */
+    public SimulationRunner(SimulationConfig config, long[] seeds) {
+        this.config = config;
+        this.road = new RoadNS(config, seeds);
+    }
+
+    /*
+    Run on an existing road, e.g. restored from a checkpoint (see RoadNS.restoreCheckpoint())
+    The iterations already done since the start of the measures are counted: a run saved after
+    1000 of 3600 iterations does the last 2600; call road.resetMeasures() to do all of them
+    */
+    public SimulationRunner(SimulationConfig config, RoadNS road) {
+        this.config = config;
+        this.road = road;
+    }
+
+    public void addObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    public RoadNS getRoad() {
+        return road;
+    }
+
+    /*
+    Save the state of the road every interval iterations, so the run can be resumed after a crash
+    */
+    public void setCheckpoint(Path file, int interval) {
+        checkpointFile = file;
+        checkpointInterval = interval;
+    }
+
+    /*
+    Run all iterations of the simulation (forever if the number of iterations is 0)
+    With SimulationConfig.adaptiveRunLength the transient is discarded and the run
+    stops early once the measures converge (see EquilibriumDetector)
+    Output:
+        the measures, see calculateMeasures()
+    */
+    public SimulationResult run(int repetition) {
+        return runReplicas(repetition)[0];
+    }
+
+    /*
+    Same as run(), for all replicas of the road: a replica whose measures converge is
+    measured at that step (it keeps moving with the others, its measures are not changed)
+    Input:
+        firstRepetition     the repetition of the first replica, the next ones follow
+    Output:
+        the measures of every replica
+    */
+    public SimulationResult[] runReplicas(int firstRepetition) {
+        int replicas = road.getReplicas();
+        int numRuns = road.getStep() - road.getMeasuresStartStep();     // not 0 if the road was restored from a checkpoint
+        EquilibriumDetector[] equilibrium = config.adaptiveRunLength ? new EquilibriumDetector[replicas] : null;
+        SimulationResult[] results = new SimulationResult[replicas];
+        int running = replicas;                                         // replicas not measured yet
+        for (int r = 0; equilibrium != null && r < replicas; r++) {
+            equilibrium[r] = new EquilibriumDetector(config);
+        }
+
+        while (config.numberOfIterations == 0 || numRuns < config.numberOfIterations) {
+            numRuns++;
+
+            road.nextState(); // calculates the next state
+
+            for (int i = 0; i < observers.size(); i++) {
+                observers.get(i).stepDone(road, numRuns);
+            }
+
+            if (checkpointFile != null && numRuns % checkpointInterval == 0) {
+                try {
+                    road.saveCheckpoint(checkpointFile);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+
+            for (int r = 0; equilibrium != null && r < replicas; r++) {
+                if (results[r] != null) continue;
+                // on a ring the flow is the distance of all cars per cell (exact, the mean over all cells),
+                // on an open road the cars passing its end
+                double meanSpeed = (double) road.getLastStepDistance(r) / Math.max(1, road.getEndSlot(r) - road.getFirstSlot(r));
+                double flow = road.isOpen() ? road.getLastStepPassingEnd(r) : (double) road.getLastStepDistance(r) / config.roadSize;
+                int state = equilibrium[r].stepDone(flow, meanSpeed);
+                if (state == EquilibriumDetector.WARM_UP_DONE) {
+                    road.resetMeasures(r);                      // the measures start at the steady state
+                    if (TrafficSimulation.DEBUG >= 5)
+                        System.out.println("Warm-up done after " + numRuns + " iterations");
+                } else if (state == EquilibriumDetector.CONVERGED) {
+                    results[r] = finishReplica(firstRepetition, r, numRuns, true);
+                    running--;
+                }
+            }
+            if (running == 0)
+                break;
+
+            if (TrafficSimulation.DEBUG>=10)
+                road.printTrafficSituation();
+
+            // print the current flow every 100 iterations
+            if (TrafficSimulation.DEBUG>=5 && numRuns % 100 == 0)
+                System.out.println("Iterations=" + numRuns + ": Traveled distance=" + road.getTotalTraveledDistance() +
+                        " NumCarsPassingEnd=" + road.getNumCarsPassingEnd());
+        }
+
+        for (int r = 0; r < replicas; r++) {
+            if (results[r] == null)
+                results[r] = finishReplica(firstRepetition, r, numRuns, equilibrium != null);
+        }
+        return results;
+    }
+
+    private SimulationResult finishReplica(int firstRepetition, int replica, int numRuns, boolean adaptive) {
+        if (road.getDetectors() != null)
+            road.getDetectors().flush();                // the last, partial window
+
+        if (TrafficSimulation.DEBUG == 1){
+            System.out.println("Num Iterations = " + numRuns + " Flow = " + road.getNumCarsPassingEnd(replica) +
+                    (adaptive ? " Warm-up = " + road.getMeasuresStartStep(replica) : ""));
+        }
+
+        return calculateMeasures(firstRepetition + replica, replica);
+    }
+
+    /*
+    Measures of the run, from the statistics of the road (the broken car is not counted)
+    They cover the steps since the start of the measures: the warm-up (if any) is reported but not measured
+    Output:
+        the measures with the parameters of the run, e.g. a row of simulations.csv
+    */
+    public SimulationResult calculateMeasures(int repetition) {
+        return calculateMeasures(repetition, 0);
+    }
+
+    /*
+    Same as calculateMeasures(), for a replica of the road
+    The measures are read from the statistics of the road, kept up to date while the cars move
+    */
+    public SimulationResult calculateMeasures(int repetition, int replica) {
+        //Flow is measures in number of cars passing a certain point.
+        //Equivalently: Sum over all cars: number of cells traveled / road size
+        CarStatistics statistics = road.getStatistics();
+        int slow = RoadNS.TYPE_CAR_SLOW;
+        int fast = RoadNS.TYPE_CAR_FAST;
+
+        int numSlow = statistics.getNumCars(replica, slow);
+        int numFast = statistics.getNumCars(replica, fast);
+
+        long totalSlowDistance = statistics.getTotalDistance(replica, slow);
+        long totalFastDistance = statistics.getTotalDistance(replica, fast);
+
+        int maxSpeedSlow = statistics.getMaxReachedSpeed(replica, slow);
+        int maxSpeedFast = statistics.getMaxReachedSpeed(replica, fast);
+
+        int bestFlowSlow = statistics.getBestDistance(replica, slow);
+        int bestFlowFast = statistics.getBestDistance(replica, fast);
+        int worstFlowSlow = numSlow == 0 ? 999999999 : statistics.getWorstDistance(replica, slow);
+        int worstFlowFast = numFast == 0 ? 999999999 : statistics.getWorstDistance(replica, fast);
+
+        // the total distance does not count that of broken car
+        return new SimulationResult(config.breakingDownProbability != 0, config.fastCarRatio, config.density, config.globalSpeedRule,
+                config.maxSpeedSlowCar, config.maxSpeedFastCar, config.slack, config.distanceToLookAhead, repetition, road.getSeed(replica),
+                maxSpeedSlow, maxSpeedFast, totalSlowDistance, totalFastDistance,
+                worstFlowSlow, worstFlowFast, bestFlowSlow, bestFlowFast, numSlow, numFast,
+                road.getMeasuresStartStep(replica), road.getStep() - road.getMeasuresStartStep(replica));
+    }
+}
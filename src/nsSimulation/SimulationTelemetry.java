@@ -0,0 +1,210 @@
+package nsSimulation;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/*==============================================================================
+Counters of the simulations of a JVM, read as the MXBean
+nsSimulation:type=Telemetry (see SimulationTelemetryMXBean) once register()
+was called, e.g. by TrafficSimulation.main()
+- the roads count their steps and car moves in striped counters (LongAdder),
+  one add per step, the rates are only computed when they are read
+- the sweeps (SweepExecutor) count the runs and their estimated cost when they
+  start and when their jobs are done; the ETA assumes the cost left goes at
+  the same speed as the cost done
+- profiling and monitoring go through the JDK tools (JMX here, JFR with
+  SimulationEvents), no need for the DEBUG levels of TrafficSimulation which
+  print from the step
+==============================================================================*/
+
+public final class SimulationTelemetry implements SimulationTelemetryMXBean {
+
+    public static final String OBJECT_NAME = "nsSimulation:type=Telemetry";
+
+    private static final long SAMPLE_NANOS = 1000000000L;      // rates over at least a second
+
+    private static final LongAdder steps = new LongAdder();
+    private static final LongAdder carUpdates = new LongAdder();
+
+    // sweep, guarded by INSTANCE
+    private static int runsTotal = 0;
+    private static int runsDone = 0;
+    private static long costTotal = 0;
+    private static long costDone = 0;
+    private static long sweepStart = 0;                         // System.nanoTime()
+    private static volatile String currentConfiguration = "";
+
+    private static final SimulationTelemetry INSTANCE = new SimulationTelemetry();
+
+    // last sample of the rates, guarded by this
+    private long sampleTime = System.nanoTime();
+    private long sampleSteps = 0;
+    private long sampleCarUpdates = 0;
+    private long sampleAllocated = allocatedBytes();
+    private double stepsPerSecond = 0;
+    private double carUpdatesPerSecond = 0;
+    private double allocationRate = 0;
+
+    private SimulationTelemetry() {
+    }
+
+    /*
+    Register the MXBean in the platform MBean server, once (the next calls do nothing)
+    */
+    public static void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ex) {
+            // already registered
+        } catch (JMException ex) {
+            throw new IllegalStateException("Cannot register " + OBJECT_NAME, ex);
+        }
+    }
+
+    public static SimulationTelemetryMXBean get() {
+        return INSTANCE;
+    }
+
+    /*
+    A road or a network did a step
+    */
+    static void stepDone(long cars) {
+        steps.increment();
+        carUpdates.add(cars);
+    }
+
+    /*
+    A sweep starts runs of a total estimated cost; it starts a new sweep if all runs
+    counted so far are done, otherwise they are added to the current one
+    */
+    static void sweepStarted(int runs, long cost) {
+        synchronized (INSTANCE) {
+            if (runsDone == runsTotal) {
+                runsTotal = 0;
+                runsDone = 0;
+                costTotal = 0;
+                costDone = 0;
+                sweepStart = System.nanoTime();
+            }
+            runsTotal += runs;
+            costTotal += cost;
+        }
+    }
+
+    static void runStarted(SimulationConfig config) {
+        currentConfiguration = config.parameters();
+    }
+
+    static void runsDone(int runs, long cost) {
+        synchronized (INSTANCE) {
+            runsDone += runs;
+            costDone += cost;
+        }
+    }
+
+    @Override
+    public long getSteps() {
+        return steps.sum();
+    }
+
+    @Override
+    public long getCarUpdates() {
+        return carUpdates.sum();
+    }
+
+    @Override
+    public synchronized double getStepsPerSecond() {
+        sample();
+        return stepsPerSecond;
+    }
+
+    @Override
+    public synchronized double getCarUpdatesPerSecond() {
+        sample();
+        return carUpdatesPerSecond;
+    }
+
+    @Override
+    public synchronized double getAllocationRate() {
+        sample();
+        return allocationRate;
+    }
+
+    @Override
+    public int getRunsDone() {
+        synchronized (INSTANCE) {
+            return runsDone;
+        }
+    }
+
+    @Override
+    public int getRunsTotal() {
+        synchronized (INSTANCE) {
+            return runsTotal;
+        }
+    }
+
+    @Override
+    public String getGridPosition() {
+        synchronized (INSTANCE) {
+            return runsDone + "/" + runsTotal;
+        }
+    }
+
+    @Override
+    public String getCurrentConfiguration() {
+        return currentConfiguration;
+    }
+
+    @Override
+    public double getEtaSeconds() {
+        synchronized (INSTANCE) {
+            if (costDone == 0) return -1;
+            double elapsed = (System.nanoTime() - sweepStart) / 1e9;
+            return elapsed * (costTotal - costDone) / costDone;
+        }
+    }
+
+    /*
+    Compute the rates again if the last sample is a second old or more
+    */
+    private void sample() {
+        long now = System.nanoTime();
+        if (now - sampleTime < SAMPLE_NANOS) return;
+        double seconds = (now - sampleTime) / 1e9;
+        long s = steps.sum();
+        long c = carUpdates.sum();
+        long a = allocatedBytes();
+        stepsPerSecond = (s - sampleSteps) / seconds;
+        carUpdatesPerSecond = (c - sampleCarUpdates) / seconds;
+        allocationRate = a < 0 ? -1 : Math.max(0, a - sampleAllocated) / seconds;
+        sampleTime = now;
+        sampleSteps = s;
+        sampleCarUpdates = c;
+        sampleAllocated = a;
+    }
+
+    /*
+    Output:
+        the bytes allocated so far by the live threads of the JVM, -1 if the JVM does not measure it
+    */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) threads;
+        if (!sun.isThreadAllocatedMemorySupported() || !sun.isThreadAllocatedMemoryEnabled())
+            return -1;
+        long total = 0;
+        for (long bytes : sun.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;                      // -1 for a thread which died in between
+        }
+        return total;
+    }
+}
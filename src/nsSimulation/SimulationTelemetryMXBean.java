@@ -0,0 +1,51 @@
+package nsSimulation;
+
+/*==============================================================================
+Live telemetry of the simulations of a JVM, as a platform MXBean (see
+SimulationTelemetry), read with jconsole, VisualVM or any JMX client
+- rates are per second, over the last second or more between two reads
+- the sweep is the runs of the SweepExecutors started since the last sweep
+  was done (several sweeps at the same time are counted as one)
+==============================================================================*/
+
+public interface SimulationTelemetryMXBean {
+
+    /*
+    steps of all roads and networks since the start of the JVM
+    */
+    long getSteps();
+
+    /*
+    car moves (cars x steps) of all roads and networks since the start of the JVM
+    */
+    long getCarUpdates();
+
+    double getStepsPerSecond();
+
+    double getCarUpdatesPerSecond();
+
+    /*
+    bytes allocated per second by the threads of the JVM, -1 if the JVM does not measure it
+    */
+    double getAllocationRate();
+
+    int getRunsDone();
+
+    int getRunsTotal();
+
+    /*
+    runs done of the runs of the sweep, e.g. "120/1152"
+    */
+    String getGridPosition();
+
+    /*
+    parameters of the configuration whose job started last (SimulationConfig.parameters())
+    */
+    String getCurrentConfiguration();
+
+    /*
+    estimated seconds until the sweep is done, from the time taken so far and the estimated cost
+    of the runs left (SimulationConfig.estimatedCost()), -1 if no run is done yet
+    */
+    double getEtaSeconds();
+}
@@ -0,0 +1,207 @@
+package nsSimulation;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+
+/*==============================================================================
+Space-time diagram of a run written as PNG tiles, without window (headless)
+- one row of pixels every stride steps, one pixel per cell: white if the cell
+  is empty, otherwise the color of the speed of its car (red when stopped to
+  green at the max speed), darker on the lanes to the left; of cars on the same
+  cell of several lanes, the slowest is shown (the jams)
+- the rows are kept in a band of TILE_HEIGHT rows, one byte per cell (a color
+  of the palette); a full band is cut into tiles of TILE_WIDTH cells written to
+  tile-<band>-<column>.png of the directory by a background thread, while the
+  run fills the other band: the memory is 2 x TILE_HEIGHT bytes per cell
+  whatever the number of steps, e.g. 51 MB for a road of 10^5 cells, and the
+  run only waits for the PNG encoding if it is slower than a band of steps
+- close() writes the last band and index.txt (the layout of the tiles)
+- an observer of a SimulationRunner; of a road with replicas, it shows one
+==============================================================================*/
+
+public class SpaceTimeDiagram implements SimulationRunner.Observer, Closeable {
+
+    public static final int TILE_WIDTH = 1024;          // cells per tile
+    public static final int TILE_HEIGHT = 256;          // rows per tile, i.e. per band
+
+    private static final int NUM_SPEEDS = CompactLanes.MAX_SPEED + 1;
+    private static final int NUM_SHADES = 4;            // lanes from the 4th on share the darkest shade
+    private static final int EMPTY = 0;                 // color of an empty cell, the others are 1 + shade * NUM_SPEEDS + speed
+
+    private final Path directory;
+    private final int stride;
+    private final int replica;
+
+    private IndexColorModel palette = null;             // set by the first row, for the max speed of the road
+    private int roadSize;
+    private byte[] band;                                // rows of the current band, roadSize bytes each
+    private byte[] writtenBand;                         // the band being written, if any
+    private byte[] tile;                                // scratch of the writer, the pixels of one tile
+    private int rowsInBand = 0;
+    private int numBands = 0;                           // bands handed to the writer
+    private int numRows = 0;                            // rows of all bands
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "space-time-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> pendingWrite = null;
+
+    /*
+    Input:
+        directory   where the tiles are written, created if needed
+        stride      one row every stride steps
+        replica     the replica of the road shown
+    */
+    public SpaceTimeDiagram(Path directory, int stride, int replica) throws IOException {
+        if (stride < 1)
+            throw new IllegalArgumentException("Stride must be positive: " + stride);
+        this.directory = directory;
+        this.stride = stride;
+        this.replica = replica;
+        Files.createDirectories(directory);
+    }
+
+    @Override
+    public void stepDone(RoadNS road, int iteration) {
+        if (iteration % stride != 0) return;
+        if (palette == null) {
+            SimulationConfig config = road.getConfig();
+            roadSize = config.roadSize;
+            palette = createPalette(Math.max(config.maxSpeedFastCar, config.maxSpeedSlowCar));
+            band = new byte[TILE_HEIGHT * roadSize];
+            writtenBand = new byte[TILE_HEIGHT * roadSize];
+            tile = new byte[TILE_HEIGHT * TILE_WIDTH];
+        }
+
+        // the slowest car of every cell
+        int row = rowsInBand * roadSize;
+        Arrays.fill(band, row, row + roadSize, (byte) EMPTY);
+        VehicleStore cars = road.getVehicles();
+        int firstRow = replica * road.getConfig().numLanes;
+        int last = road.getEndSlot(replica);
+        for (int slot = road.getFirstSlot(replica); slot < last; slot++) {
+            int cell = cars.position[slot];
+            if (cell >= roadSize) continue;                             // leaving an open road
+            int shade = Math.min(cars.lane[slot] - firstRow, NUM_SHADES) - 1;
+            int color = 1 + shade * NUM_SPEEDS + cars.speed[slot];
+            int current = band[row + cell] & 0xFF;
+            if (current == EMPTY || cars.speed[slot] < (current - 1) % NUM_SPEEDS)
+                band[row + cell] = (byte) color;
+        }
+
+        numRows++;
+        if (++rowsInBand == TILE_HEIGHT) {
+            try {
+                writeBand();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /*
+    Write the rows not written yet and the index of the tiles
+    */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsInBand > 0) writeBand();
+            waitForWriter();
+        } finally {
+            writer.shutdown();
+        }
+        int columns = palette == null ? 0 : (roadSize + TILE_WIDTH - 1) / TILE_WIDTH;
+        Files.write(directory.resolve("index.txt"), Arrays.asList(
+                "cells=" + (palette == null ? 0 : roadSize),
+                "rows=" + numRows,
+                "stride=" + stride,
+                "tileWidth=" + TILE_WIDTH,
+                "tileHeight=" + TILE_HEIGHT,
+                "bands=" + numBands,
+                "columns=" + columns,
+                "tiles=tile-<band>-<column>.png, row r of band b is step (b * tileHeight + r + 1) * stride"),
+                StandardCharsets.UTF_8);
+    }
+
+    /*
+    Hand the band to the writer once it wrote the previous one, and go on with the other band
+    */
+    private void writeBand() throws IOException {
+        waitForWriter();
+        byte[] full = band;
+        band = writtenBand;
+        writtenBand = full;
+        int bandIndex = numBands++;
+        int numBandRows = rowsInBand;
+        rowsInBand = 0;
+        pendingWrite = writer.submit(() -> {
+            writeTiles(full, bandIndex, numBandRows);
+            return null;
+        });
+    }
+
+    /*
+    Cut the rows of a band into tiles, and write them (writer thread)
+    */
+    private void writeTiles(byte[] rows, int bandIndex, int numBandRows) throws IOException {
+        for (int column = 0; column * TILE_WIDTH < roadSize; column++) {
+            int firstCell = column * TILE_WIDTH;
+            int width = Math.min(TILE_WIDTH, roadSize - firstCell);
+            for (int r = 0; r < numBandRows; r++) {
+                System.arraycopy(rows, r * roadSize + firstCell, tile, r * width, width);
+            }
+            BufferedImage image = new BufferedImage(width, numBandRows, BufferedImage.TYPE_BYTE_INDEXED, palette);
+            image.getRaster().setDataElements(0, 0, width, numBandRows, tile);
+            ImageIO.write(image, "png", directory.resolve(String.format("tile-%05d-%05d.png", bandIndex, column)).toFile());
+        }
+    }
+
+    private void waitForWriter() throws IOException {
+        if (pendingWrite == null) return;
+        try {
+            pendingWrite.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the space-time diagram", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("Writing the space-time diagram failed", ex.getCause());
+        } finally {
+            pendingWrite = null;
+        }
+    }
+
+    /*
+    Output:
+        white, then per shade of lane the colors of the speeds from 0 (red) to maxSpeed (green)
+    */
+    private static IndexColorModel createPalette(int maxSpeed) {
+        int size = 1 + NUM_SHADES * NUM_SPEEDS;
+        byte[] red = new byte[size];
+        byte[] green = new byte[size];
+        byte[] blue = new byte[size];
+        red[EMPTY] = green[EMPTY] = blue[EMPTY] = (byte) 255;
+        for (int shade = 0; shade < NUM_SHADES; shade++) {
+            double brightness = 1 - 0.2 * shade;
+            for (int speed = 0; speed < NUM_SPEEDS; speed++) {
+                double ratio = Math.min(1, speed / (double) Math.max(1, maxSpeed));
+                int i = 1 + shade * NUM_SPEEDS + speed;
+                red[i] = (byte) (brightness * 255 * Math.min(1, 2 * (1 - ratio)));
+                green[i] = (byte) (brightness * 255 * Math.min(1, 2 * ratio));
+            }
+        }
+        return new IndexColorModel(8, size, red, green, blue);
+    }
+}
@@ -0,0 +1,338 @@
+package nsSimulation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*==============================================================================
+Runs the simulations of a parameter sweep on all cores
+- every (configuration, repetition) is an independent job with its own road,
+  except that consecutive repetitions of a configuration are batched by
+  SimulationConfig.replicas: they run as the replicas of one road, one job
+- the jobs are submitted to a work-stealing pool, the most expensive ones first
+  (longest processing time first), so the short jobs fill the gaps at the end
+- the results are handed back in the order the jobs were added, i.e. grid order,
+  and can also be written to a ResultSink by the jobs as soon as they finish
+- with a ResultCache, only the runs not found in the cache are run (and added to
+  it), the others are done at once; a run with the same outcome as an earlier
+  run of the sweep (see SimulationConfig.outcomeParameters()) is not run either,
+  it takes the result of that run
+- the runs to run and their progress are counted by SimulationTelemetry, every
+  job is a SimulationEvents.Run event of a flight recording
+==============================================================================*/
+
+public class SweepExecutor {
+
+    /*
+    Receives the result of every run as soon as it is done (from the thread of the run, or
+    from the thread of start() for a run found in the cache)
+    Input:
+        run     the index of the run, in the order of add()
+    */
+    public interface Listener {
+        void runDone(int run, SimulationResult result) throws IOException;
+    }
+
+    /*
+    Creates the observers of a run, e.g. a SpaceTimeDiagram; those which are Closeable are closed after the run
+    Input:
+        replica     the replica of the road of the job which is the run
+    */
+    public interface ObserverFactory {
+        SimulationRunner.Observer create(SimulationConfig config, int repetition, int replica) throws IOException;
+    }
+
+    private final ForkJoinPool pool;
+    private final List<SimulationConfig> configs = new ArrayList<>();     // per run, in the order of add()
+    private final List<Integer> repetitions = new ArrayList<>();
+    private ResultCache cache = null;
+    private ObserverFactory observers = null;
+    private int numCached = 0;
+    private int numShared = 0;
+    private AtomicBoolean cancelled = new AtomicBoolean();  // of the jobs of the last start()
+
+    public SweepExecutor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public SweepExecutor(int parallelism) {
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /*
+    Add a run of a given configuration to the sweep, nothing is started before start()
+    It joins the job of the previous run to run if that one is the previous repetition of the
+    same configuration object, up to config.replicas runs per job
+    */
+    public void add(SimulationConfig config, int repetition) {
+        configs.add(config);
+        repetitions.add(repetition);
+    }
+
+    /*
+    Remove the runs added, e.g. to add the runs of the next round of an AdaptiveSweep once
+    the results of the last start() are in
+    */
+    public void clear() {
+        configs.clear();
+        repetitions.clear();
+    }
+
+    /*
+    Look up the runs in a cache before running them, null for no cache
+    */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /*
+    Observe every run which is run (not those found in the cache), null for no observer
+    */
+    public void setObservers(ObserverFactory observers) {
+        this.observers = observers;
+    }
+
+    /*
+    number of runs added, i.e. of results
+    */
+    public int size() {
+        return configs.size();
+    }
+
+    /*
+    number of runs found in the cache by start()
+    */
+    public int getNumCached() {
+        return numCached;
+    }
+
+    /*
+    number of runs which took the result of an earlier run of the sweep with the same outcome
+    */
+    public int getNumShared() {
+        return numShared;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    /*
+    Submit all jobs to the pool, longest first
+    Output:
+        the future results, in the order the jobs were added
+    */
+    public List<Future<SimulationResult>> start() {
+        return start((Listener) null);
+    }
+
+    /*
+    Same as start(), every job also writes its result to a sink when it finishes (in the order they finish,
+    with the index of its run)
+    */
+    public List<Future<SimulationResult>> start(ResultSink sink) {
+        return start(sink == null ? null : (run, result) -> sink.write(run, result));
+    }
+
+    /*
+    Same as start(), every job also hands its result to a listener when it finishes
+    */
+    public List<Future<SimulationResult>> start(Listener listener) {
+        List<CompletableFuture<SimulationResult>> results = new ArrayList<>(size());
+        List<Job> jobs = new ArrayList<>();
+        Map<String, Integer> runOfOutcome = new HashMap<>();   // first run of every outcome to run
+        numCached = 0;
+        numShared = 0;
+        cancelled = new AtomicBoolean();
+        for (int run = 0; run < size(); run++) {
+            SimulationConfig config = configs.get(run);
+            int repetition = repetitions.get(run);
+            results.add(new CompletableFuture<>());
+
+            SimulationResult cached = cache == null ? null : cache.get(config, repetition);
+            if (cached != null) {
+                numCached++;
+                done(run, cached, listener, results.get(run));
+                continue;
+            }
+            if (cache != null) {
+                long seed = config.getRunSeed(repetition);
+                Integer earlier = runOfOutcome.putIfAbsent(ResultCache.key(config, seed), run);
+                if (earlier != null) {
+                    numShared++;
+                    final int thisRun = run;
+                    results.get(earlier).whenComplete((result, failure) -> {
+                        if (failure != null)
+                            results.get(thisRun).completeExceptionally(failure);
+                        else
+                            done(thisRun, result.forRun(config, repetition, seed), listener, results.get(thisRun));
+                    });
+                    continue;
+                }
+            }
+
+            Job last = jobs.isEmpty() ? null : jobs.get(jobs.size() - 1);
+            if (last != null && last.config == config && last.firstRun + last.replicas == run
+                    && last.firstRepetition + last.replicas == repetition && last.replicas < config.replicas) {
+                last.replicas++;                            // one more replica of the road of the last job
+            } else {
+                jobs.add(new Job(config, repetition, run, results, listener, cache, observers, cancelled));
+            }
+        }
+
+        Job[] byCost = jobs.toArray(new Job[jobs.size()]);
+        Arrays.sort(byCost, Comparator.comparingLong((Job j) -> j.config.estimatedCost() * j.replicas).reversed());
+        int runs = 0;
+        long cost = 0;
+        for (Job job : byCost) {
+            runs += job.replicas;
+            cost += job.config.estimatedCost() * job.replicas;
+        }
+        SimulationTelemetry.sweepStarted(runs, cost);
+        for (Job job : byCost) {
+            pool.execute(job);
+        }
+        return Collections.unmodifiableList(results);
+    }
+
+    /*
+    Drop the jobs of the last start() which did not start yet, their runs fail with a CancellationException;
+    the jobs running go on to their end (a run cannot be interrupted)
+    */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /*
+    Hand the result of a run which did not need to be run to the listener
+    */
+    private static void done(int run, SimulationResult result, Listener listener, CompletableFuture<SimulationResult> future) {
+        try {
+            if (listener != null)
+                listener.runDone(run, result);
+            future.complete(result);
+        } catch (IOException ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+
+    /*
+    Close the observers of a run which are Closeable, all of them even if one fails
+    Input:
+        failure     the exception of the run if it failed, the failures to close are added to it; null
+                    if the run succeeded, the first failure to close is then thrown
+    */
+    private static void closeObservers(List<SimulationRunner.Observer> observers, Throwable failure) throws IOException {
+        IOException first = null;
+        for (SimulationRunner.Observer observer : observers) {
+            if (!(observer instanceof Closeable)) continue;
+            try {
+                ((Closeable) observer).close();
+            } catch (IOException ex) {
+                if (failure != null) failure.addSuppressed(ex);
+                else if (first == null) first = ex;
+                else first.addSuppressed(ex);
+            }
+        }
+        if (first != null)
+            throw first;
+    }
+
+    /*
+    Consecutive repetitions of a configuration, from the initialisation to the measures
+    */
+    private static class Job implements Runnable {
+        private final SimulationConfig config;
+        private final int firstRepetition;
+        private final int firstRun;                     // index of the first run in the order of add()
+        private int replicas = 1;
+        private final List<CompletableFuture<SimulationResult>> results;       // of all runs of the sweep
+        private final Listener listener;
+        private final ResultCache cache;
+        private final ObserverFactory observers;
+        private final AtomicBoolean cancelled;
+
+        Job(SimulationConfig config, int firstRepetition, int firstRun, List<CompletableFuture<SimulationResult>> results,
+                Listener listener, ResultCache cache, ObserverFactory observers, AtomicBoolean cancelled) {
+            this.config = config;
+            this.firstRepetition = firstRepetition;
+            this.firstRun = firstRun;
+            this.results = results;
+            this.listener = listener;
+            this.cache = cache;
+            this.observers = observers;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled.get()) {
+                for (int r = 0; r < replicas; r++) {
+                    results.get(firstRun + r).completeExceptionally(new CancellationException("Sweep cancelled"));
+                }
+                SimulationTelemetry.runsDone(replicas, config.estimatedCost() * replicas);
+                return;
+            }
+            SimulationEvents.Run event = new SimulationEvents.Run();
+            event.begin();
+            SimulationTelemetry.runStarted(config);
+            List<SimulationRunner.Observer> runObservers = new ArrayList<>();
+            try {
+                SimulationResult[] measures;
+                try {
+                    long[] seeds = new long[replicas];
+                    for (int r = 0; r < replicas; r++) {
+                        seeds[r] = config.getRunSeed(firstRepetition + r);
+                    }
+                    SimulationRunner runner = replicas == 1 ? new SimulationRunner(config, seeds[0]) : new SimulationRunner(config, seeds);
+                    for (int r = 0; observers != null && r < replicas; r++) {
+                        SimulationRunner.Observer observer = observers.create(config, firstRepetition + r, r);
+                        runObservers.add(observer);
+                        runner.addObserver(observer);
+                    }
+                    measures = runner.runReplicas(firstRepetition);
+                } catch (Throwable ex) {
+                    closeObservers(runObservers, ex);           // the failure of the run is the one reported
+                    throw ex;
+                }
+                closeObservers(runObservers, null);
+                for (int r = 0; r < replicas; r++) {
+                    if (cache != null)
+                        cache.put(config, measures[r]);
+                    if (listener != null)
+                        listener.runDone(firstRun + r, measures[r]);
+                    results.get(firstRun + r).complete(measures[r]);
+                }
+                if (event.shouldCommit()) {
+                    event.configuration = config.parameters();
+                    event.firstRepetition = firstRepetition;
+                    event.replicas = replicas;
+                    event.steps = measures[0].warmUpSteps + measures[0].measurementSteps;
+                    event.cars = config.getTotalCars();
+                    event.commit();
+                }
+            } catch (Throwable ex) {
+                for (int r = 0; r < replicas; r++) {
+                    results.get(firstRun + r).completeExceptionally(ex);
+                }
+            } finally {
+                SimulationTelemetry.runsDone(replicas, config.estimatedCost() * replicas);
+            }
+        }
+    }
+}
@@ -1,11 +1,19 @@
 package nsSimulation;
 
 import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TrafficSimulation {
 
@@ -14,7 +22,24 @@ public class TrafficSimulation {
     // GLOBAL CONSTANTS ////////////////////////////////////////////////////////
     
     // SIMULATION DETAILS
-    public static int SIMULATION_STEP_COOLDOWN = 0;           // time delay between update steps, for animation purpose
+    public static boolean ANIMATION = false;                  // testModel(): show the road in a window (see AnimatedSimulation)
+    public static int FRAMES_PER_SECOND = 30;                 // frames drawn by the animation, the simulation does not wait for them
+    public static int SIMULATION_STEP_COOLDOWN = 0;           // time delay between update steps of an animated run, 0 for full speed
+    public static int STEP_SEGMENTS = 1;                      // number of segments of a road updated in parallel, 1 for a sequential update
+    public static int REPLICAS = 1;                           // repetitions of a configuration run together as the replicas of one road (see RoadNS), 1 for one road per run
+    public static boolean VECTOR_KERNEL = true;               // new speeds of all cars of a lane at once (see VelocityKernel), false for car by car, same results
+    public static long MASTER_SEED = new Random().nextLong(); // the seeds of all runs are derived from it, set a value to reproduce a sweep (getStatisticalData() with SWEEP_DIRECTORY: the seed of the shared sweep)
+    public static String SWEEP_DIRECTORY = null;              // getStatisticalData(): directory shared by the JVMs running the sweep together (see ShardedSweep), null to run it in this JVM only
+    public static int RUNS_PER_SHARD = 50;                    // getStatisticalData(): runs claimed at once by a JVM of a shared sweep
+    public static String RESULT_CACHE = null;                 // getStatisticalData(): directory of the results of past runs, e.g. "result-cache", only the new runs are run (see ResultCache, set MASTER_SEED to find the runs of a past sweep), null for no cache
+    public static int ADAPTIVE_SWEEP_BUDGET = 0;              // getStatisticalData(): 0 for the full grid, otherwise max number of runs of a sweep which refines the densities where the flow changes (see AdaptiveSweep)
+    public static boolean ADAPTIVE_SWEEP_RATIO = false;       // with ADAPTIVE_SWEEP_BUDGET: refine the fast car ratios too
+    public static boolean DENSITY_CONTINUATION = false;       // getStatisticalData(): run the densities up then down on one road per repetition, written to simulations-continuation.csv (see DensityContinuation)
+    public static int CONTINUATION_STEPS = 300;               // with DENSITY_CONTINUATION: steps to re-equilibrate the road before a density is measured
+    public static int CONTINUATION_MEASUREMENT_STEPS = 1000;  // with DENSITY_CONTINUATION: steps measured per density (the road starts near its equilibrium, a run of the grid has NUMBER_OF_ITERATIONS)
+    public static int TIME_SERIES_WINDOW = 0;                 // testModel(): 0 for no time series, otherwise number of steps written at once (see DetectorSeries)
+    public static int DETECTOR_SPACING = 1000;                // testModel(): one loop detector every that many cells
+    public static int SPACE_TIME_STRIDE = 0;                  // 0 for no space-time diagram, otherwise one row of the diagram of every run every that many steps (see SpaceTimeDiagram)
     public static final int CAR_WIDTH = 10;
 
     // BROKEN CAR CONSTANTS 
@@ -28,9 +53,14 @@ public class TrafficSimulation {
     ////////////////////////////////////////////////////////////////////////////
 
     // CONFIGURATIONS //////////////////////////////////////////////////////////
+    // the road and the rules never read these values directly, they are copied
+    // into a SimulationConfig (see SimulationConfig.fromGlobals()) for every run
     public static double DENSITY;
     public static double FAST_CAR_RATIO; // fast/total cars
-    public static int NUMBER_OF_ITERATIONS;
+    public static int NUMBER_OF_ITERATIONS;               // with ADAPTIVE_RUN_LENGTH: the max number of iterations
+    public static boolean ADAPTIVE_RUN_LENGTH = false;    // detect the end of the transient and stop once the measures converge (see EquilibriumDetector)
+    public static int EQUILIBRIUM_WINDOW = 100;           // number of iterations per window of the detection
+    public static double EQUILIBRIUM_TOLERANCE = 0.005;   // relative standard error of flow and mean speed to stop at (0.5%: about 1% at 95% confidence)
     public static boolean GLOBAL_SPEED_RULE = false;
     public static int GLOBAL_MAX_SPEED;
 
@@ -45,6 +75,7 @@ public class TrafficSimulation {
 
     // 
     public static int ROAD_SIZE = 0;                      // number of cells
+    public static int NUM_LANES = 2;                      // lane 1 is the rightmost lane, the paper studies 2 lanes
     public static int NUM_FAST_CARS = 0;
     public static int NUM_SLOW_CARS = 0;
     public static boolean HAS_BROKEN_CAR = false;
@@ -56,6 +87,8 @@ public class TrafficSimulation {
      */
     public static void main(String[] args) throws IOException {
 
+        SimulationTelemetry.register();                 // live rates and progress of the sweep, see SimulationTelemetryMXBean
+
         //Don't make this value zero, or it'll crash
         NUMBER_OF_ITERATIONS = 3600;    // coresponding to 1 hour
 
@@ -73,7 +106,8 @@ public class TrafficSimulation {
     /*
     You can change values of variables in this function to test the model
     TrafficSimulation.DEBUG     should be 1 to avoid redundant information in the output
-    TrafficSimulation.SIMULATION_STEP_COOLDOWN      0 to disable animation, otherwise which is the delay in ms in updating animation scene
+    TrafficSimulation.ANIMATION                     true to show the road in a window while it runs
+    TrafficSimulation.SIMULATION_STEP_COOLDOWN      with animation, the delay in ms between steps to watch them, 0 for full speed
     
     roadLength                  length of the observation road segment in km, it was 75 km in the paper
     
@@ -84,7 +118,7 @@ public class TrafficSimulation {
         NUMBER_OF_ITERATIONS = 3600;        // coresponding to 1 hour
         
         TrafficSimulation.DEBUG = 1;                                            // show only important information
-        TrafficSimulation.SIMULATION_STEP_COOLDOWN = 0;                         // turn on animation by setting this value different from 0
+        TrafficSimulation.ANIMATION = false;                                    // turn on animation by setting this value to true
         
         // parameters related to road segment
         
@@ -92,7 +126,8 @@ public class TrafficSimulation {
         double roadLength = 75;                     // in km, should be a multiple of cellLength 
         ROAD_SIZE = (int) (roadLength * 1000 / cellLength);                     // number of cells
         MAX_ACCELERATION = 1;                       // consider changing this value if cell length is modified
-        System.out.println("Test model: ROAD_SIZE = " + ROAD_SIZE + " cells \n");
+        STEP_SEGMENTS = Runtime.getRuntime().availableProcessors();             // long road, update its segments in parallel
+        System.out.println("Test model: ROAD_SIZE = " + ROAD_SIZE + " cells, MASTER_SEED = " + MASTER_SEED + "\n");
 
         // to use in the same scale with our model, set cellLength = 3, 
         // consider changing the MAX_ACCELERATION, masSpeedsFast, maxSpeedsSlow as well
@@ -142,7 +177,9 @@ public class TrafficSimulation {
         int totalCars;
         long startTime;
 
-        AnimatedSimulation simulation = new AnimatedSimulation();
+        AnimatedSimulation viewer = null;           // the animation is only loaded when it is turned on
+        if (ANIMATION)
+            viewer = new AnimatedSimulation(ROAD_SIZE);
 
         System.out.println(situation + "\n");
 
@@ -170,9 +207,33 @@ public class TrafficSimulation {
                             startTime = System.nanoTime();
                             System.out.println("Density = " + density + " Fast car ratio = " + ratio + " Having broken car = " + broken
                                     + " Distance look ahead = " + distance + " Slack=" + slack + " Symmetry = " + APPLY_SYMMETRIC_RULE + "\n");
+                            SimulationConfig config = SimulationConfig.fromGlobals();
                             for (int rep=0; rep<numRepetitions; rep++){
-                                simulation.initialiseSimulation(NUMBER_OF_ITERATIONS);
-                                simulation.runSimulation(rep);
+                                SimulationRunner simulation = new SimulationRunner(config, config.getRunSeed(rep));
+                                if (viewer != null)
+                                    simulation.addObserver(viewer);
+                                SpaceTimeDiagram diagram = null;
+                                if (SPACE_TIME_STRIDE > 0) {
+                                    // PNG tiles of the diagram, e.g. space-time_120.0_0/tile-00000-00000.png
+                                    diagram = new SpaceTimeDiagram(Paths.get("space-time_" + density + "_" + rep), SPACE_TIME_STRIDE, 0);
+                                    simulation.addObserver(diagram);
+                                }
+                                if (TIME_SERIES_WINDOW > 0) {
+                                    // time series of the lanes and of the detectors, e.g. lanes_120.0_0.csv
+                                    String suffix = "_" + density + "_" + rep + ".csv";
+                                    try (DetectorCsvWriter timeSeries = new DetectorCsvWriter(Paths.get("lanes" + suffix), Paths.get("detectors" + suffix))) {
+                                        int[] detectorCells = new int[(ROAD_SIZE + DETECTOR_SPACING - 1) / DETECTOR_SPACING];
+                                        for (int d = 0; d < detectorCells.length; d++) {
+                                            detectorCells[d] = d * DETECTOR_SPACING;
+                                        }
+                                        simulation.getRoad().setDetectors(new DetectorSeries(detectorCells, TIME_SERIES_WINDOW, timeSeries));
+                                        simulation.run(rep);
+                                    }
+                                } else {
+                                    simulation.run(rep);
+                                }
+                                if (diagram != null)
+                                    diagram.close();
                                 System.out.println();
                             }
                             System.out.println("Running one set simulation: " + (System.nanoTime() - startTime) / Math.pow(10, 9) + " seconds\n");
@@ -184,16 +245,24 @@ public class TrafficSimulation {
         }
     }
     
-    private static Boolean getStatisticalData() throws FileNotFoundException, UnsupportedEncodingException, IOException{
+    private static Boolean getStatisticalData() throws IOException{
         TrafficSimulation.DEBUG = 1;                                            // show only important information
-        TrafficSimulation.SIMULATION_STEP_COOLDOWN = 0;                         // turn on animation by setting this value different from 0
+        TrafficSimulation.SIMULATION_STEP_COOLDOWN = 0;                         // delay in ms between the steps of an animated run (see ANIMATION), 0 for full speed
         
         // parameters related to road segment        
         double cellLength = 7.5;                    // in meter
         double roadLength = 7.5;                     // in km, should be a multiple of cellLength 
         ROAD_SIZE = (int) (roadLength * 1000 / cellLength);                     // number of cells
         MAX_ACCELERATION = 1;                       // consider changing this value if cell length is modified
-        System.out.println("getStatisticalData: ROAD_SIZE = " + ROAD_SIZE + " cells \n");
+        if (SWEEP_DIRECTORY != null)
+            MASTER_SEED = ShardedSweep.masterSeed(Paths.get(SWEEP_DIRECTORY), MASTER_SEED);    // the seed chosen by the first worker of the sweep
+        if (RESULT_CACHE != null) {
+            long cachedSeed = ResultCache.masterSeed(Paths.get(RESULT_CACHE), MASTER_SEED);
+            if (cachedSeed != MASTER_SEED)
+                System.out.println("Warning: the runs of the cache " + RESULT_CACHE + " were run with MASTER_SEED = " + cachedSeed
+                        + ", set it to reuse them; the runs of MASTER_SEED = " + MASTER_SEED + " are run and cached\n");
+        }
+        System.out.println("getStatisticalData: ROAD_SIZE = " + ROAD_SIZE + " cells, MASTER_SEED = " + MASTER_SEED + "\n");
 
         // use model in section VIII, D in the paper
         APPLY_SYMMETRIC_RULE = true;
@@ -201,13 +270,19 @@ public class TrafficSimulation {
         int[] slacks = {3};
         
         int numRepetitions = 5;                     // repeat each model xxx times
-        int totalCars;
         long startTime;
 
         GLOBAL_SPEED_RULE = false;
-        String filename = "simulations.csv";        
+        ADAPTIVE_RUN_LENGTH = false;                // true: stop every run once its measures converge, NUMBER_OF_ITERATIONS is the max
+        REPLICAS = numRepetitions;                  // the repetitions of a configuration advance together as the replicas of one road
+        String filename = "simulations.csv";
+        String binaryFilename = "simulations.bin";  // written during the sweep, then converted to filename
         Boolean success;
-        AnimatedSimulation simulation = new AnimatedSimulation();
+        SweepExecutor sweep = new SweepExecutor();         // runs the repetitions of all configurations on all cores
+        ShardedSweep sharedSweep = SWEEP_DIRECTORY == null ? null : new ShardedSweep(Paths.get(SWEEP_DIRECTORY), RUNS_PER_SHARD);
+        ResultCache cache = null;
+        AdaptiveSweep adaptiveSweep = null;
+        List<DensityContinuation> continuations = null;
 
         double[] trafficDensities = {0.05, 0.1, 0.15, .3, .4};
         double[] fastCarRatios = {0, 0.25, 0.50, 0.75, 1.0};
@@ -216,46 +291,101 @@ public class TrafficSimulation {
         boolean[] globalRules = {false};
         boolean[] brokenCar = {true, false};
 
-        PrintWriter writer;
         try {
-            writer = new PrintWriter(filename, "UTF-8");
-            writer.println("model, road_block, max_speed_slow, max_speed_fast, fast_car_ratio, density, total_all_cars_distance, total_slow_cars_distance, total_fast_cars_distance, worst_case_distance_slow_cars, worst_cast_distance_fast_cars, best_case_distance_slow_car, best_case_distance_fast_car,num_slow_cars,num_fast_cars,global_speed_rule,speed_slow,speed_fast,repetition,slack,distance_look_ahead");
-            for (int distance : arrDistanceLookAhead) {
-                for (int slack : slacks) {
-                    DISTANCE_TO_LOOK_AHEAD = distance;
-                    SLACK = slack;
-                    for (double density : trafficDensities) {
+            if (RESULT_CACHE != null) {
+                cache = new ResultCache(Paths.get(RESULT_CACHE));
+                System.out.println(cache.size() + " results in the cache " + cache.getFile() + "\n");
+                sweep.setCache(cache);
+                if (sharedSweep != null) sharedSweep.setCache(cache);
+            }
+            if (SPACE_TIME_STRIDE > 0) {
+                // the diagram of every run which is run, in space-time/<ID of the run>/
+                SweepExecutor.ObserverFactory diagrams = (config, repetition, replica) ->
+                        new SpaceTimeDiagram(Paths.get("space-time", ShardedSweep.runID(config, repetition)), SPACE_TIME_STRIDE, replica);
+                sweep.setObservers(diagrams);
+                if (sharedSweep != null) sharedSweep.setObservers(diagrams);
+            }
+            if (DENSITY_CONTINUATION) {
+                if (sharedSweep != null)
+                    throw new IllegalStateException("A density continuation runs its points one after the other, it cannot be shared: set SWEEP_DIRECTORY to null");
+                continuations = new ArrayList<>();
+                double[] densities = DensityContinuation.loop(trafficDensities);
+                int iterations = NUMBER_OF_ITERATIONS;
+                NUMBER_OF_ITERATIONS = CONTINUATION_MEASUREMENT_STEPS;
+                for (int distance : arrDistanceLookAhead) {
+                    for (int slack : slacks) {
                         for (double ratio : fastCarRatios) {
                             for (int slow : maxSpeedsSlow) {
                                 for (int fast : maxSpeedsFast) {
                                     for (boolean global : globalRules) {
                                         for (boolean broken : brokenCar) {
                                             if (slow <= fast) {
-                                                DENSITY = density;
-                                                totalCars = (int) (ROAD_SIZE * density);
-                                                NUM_FAST_CARS = (int) (ratio * totalCars);
-                                                NUM_SLOW_CARS = totalCars - NUM_FAST_CARS;
-                                                FAST_CAR_RATIO = ratio;
-                                                GLOBAL_SPEED_RULE = global;
-                                                if (global) {
-                                                    GLOBAL_MAX_SPEED = (int) (0.75 * slow);
+                                                // the configurations here, the chains run on other threads; every point is
+                                                // measured for CONTINUATION_MEASUREMENT_STEPS steps
+                                                SimulationConfig[] points = new SimulationConfig[densities.length];
+                                                for (int point = 0; point < densities.length; point++) {
+                                                    points[point] = sweepConfig(densities[point], ratio, slow, fast, global, broken, distance, slack);
                                                 }
-                                                MAX_SPEED_SLOW_CAR = slow;
-                                                MAX_SPEED_FAST_CAR = fast;
-                                                HAS_BROKEN_CAR = broken;
-                                                if (HAS_BROKEN_CAR) {
-                                                    NUM_SLOW_CARS++;   // broken car is counted in number of slow cars
-                                                }
-                                                BREAKING_DOWN_PROBABILITY = broken ? 0.3 : 0.0;
-                                                startTime = System.nanoTime();
+                                                // the first density warms up as long as a run, the next ones for CONTINUATION_STEPS
                                                 for (int repetition = 0; repetition < numRepetitions; repetition++) {
-                                                    simulation.initialiseSimulation(NUMBER_OF_ITERATIONS);
-                                                    writer.println(simulation.runSimulation(repetition));
+                                                    continuations.add(new DensityContinuation(points, repetition, iterations, CONTINUATION_STEPS));
+                                                }
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                NUMBER_OF_ITERATIONS = iterations;
+            } else if (ADAPTIVE_SWEEP_BUDGET > 0) {
+                if (sharedSweep != null)
+                    throw new IllegalStateException("An adaptive sweep chooses its runs from its results, it cannot be shared: set SWEEP_DIRECTORY to null");
+                adaptiveSweep = new AdaptiveSweep(sweep, numRepetitions, ADAPTIVE_SWEEP_BUDGET);
+                for (int distance : arrDistanceLookAhead) {
+                    for (int slack : slacks) {
+                        for (int slow : maxSpeedsSlow) {
+                            for (int fast : maxSpeedsFast) {
+                                for (boolean global : globalRules) {
+                                    for (boolean broken : brokenCar) {
+                                        if (slow <= fast) {
+                                            // the flow against the density, at every ratio, down to one car between two densities
+                                            for (double ratio : fastCarRatios) {
+                                                adaptiveSweep.addCurve(d -> sweepConfig(d, ratio, slow, fast, global, broken, distance, slack),
+                                                        trafficDensities, 1.0 / ROAD_SIZE);
+                                            }
+                                            // and against the ratio, at every density of the coarse grid, down to one fast car
+                                            if (ADAPTIVE_SWEEP_RATIO) {
+                                                for (double density : trafficDensities) {
+                                                    adaptiveSweep.addCurve(r -> sweepConfig(density, r, slow, fast, global, broken, distance, slack),
+                                                            fastCarRatios, 1.0 / Math.max(1, (int) (ROAD_SIZE * density)));
+                                                }
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+            } else {
+                for (int distance : arrDistanceLookAhead) {
+                    for (int slack : slacks) {
+                        for (double density : trafficDensities) {
+                            for (double ratio : fastCarRatios) {
+                                for (int slow : maxSpeedsSlow) {
+                                    for (int fast : maxSpeedsFast) {
+                                        for (boolean global : globalRules) {
+                                            for (boolean broken : brokenCar) {
+                                                if (slow <= fast) {
+                                                    SimulationConfig config = sweepConfig(density, ratio, slow, fast, global, broken, distance, slack);
+                                                    for (int repetition = 0; repetition < numRepetitions; repetition++) {
+                                                        if (sharedSweep != null) sharedSweep.add(config, repetition);
+                                                        else sweep.add(config, repetition);
+                                                    }
                                                 }
-                                                System.out.println("Running one set simulation: " + (System.nanoTime() - startTime) / Math.pow(10, 9) + " seconds\n");
-                                                System.out.println();
                                             }
-                                            writer.flush();
                                         }
                                     }
                                 }
@@ -264,13 +394,140 @@ public class TrafficSimulation {
                     }
                 }
             }
-            writer.close();
+            
+            if (continuations != null)
+                return runContinuations(continuations, "simulations-continuation.csv");
+            if (sharedSweep != null)
+                return runSharedSweep(sharedSweep, filename);
+
+            // run the sweep, every run writes its record as soon as it finishes (the writing is done in background)
+            startTime = System.nanoTime();
+            try (ResultSink sink = new BinaryResultSink(Paths.get(binaryFilename))) {
+                if (adaptiveSweep != null) {
+                    System.out.println("Running an adaptive sweep of at most " + ADAPTIVE_SWEEP_BUDGET + " simulations on " + sweep.getParallelism() + " threads\n");
+                    int runs = adaptiveSweep.run(sink);
+                    System.out.println(runs + " simulations in " + adaptiveSweep.getNumRounds() + " rounds, " + adaptiveSweep.getSpent() + " run\n");
+                } else {
+                    System.out.println("Running " + sweep.size() + " simulations on " + sweep.getParallelism() + " threads\n");
+                    List<Future<SimulationResult>> results = sweep.start(sink);
+                    if (cache != null)
+                        System.out.println(sweep.getNumCached() + " simulations found in the cache\n");
+                    for (Future<SimulationResult> result : results) {
+                        result.get();
+                    }
+                }
+            }
+            System.out.println("Running the sweep: " + (System.nanoTime() - startTime) / Math.pow(10, 9) + " seconds\n");
+            
+            int rows = ResultConverter.binaryToCsv(Paths.get(binaryFilename), Paths.get(filename));
+            System.out.println(rows + " rows written to " + filename + "\n");
             success = true;
-        } catch (FileNotFoundException | UnsupportedEncodingException ex) {
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            success = false;
+        } catch (InterruptedException | ExecutionException ex) {
+            ex.printStackTrace();
             success = false;
+        } finally {
+            sweep.shutdown();
+            try {
+                if (cache != null) cache.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                success = false;
+            }
         }
         return success;
         
     }
+
+    /*
+    Set the parameters of a point of the sweep of getStatisticalData()
+    Output:
+        the configuration of the point
+    */
+    private static SimulationConfig sweepConfig(double density, double ratio, int slow, int fast, boolean global, boolean broken,
+            int distance, int slack) {
+        DISTANCE_TO_LOOK_AHEAD = distance;
+        SLACK = slack;
+        DENSITY = density;
+        int totalCars = (int) (ROAD_SIZE * density);
+        NUM_FAST_CARS = (int) (ratio * totalCars);
+        NUM_SLOW_CARS = totalCars - NUM_FAST_CARS;
+        FAST_CAR_RATIO = ratio;
+        GLOBAL_SPEED_RULE = global;
+        if (global) {
+            GLOBAL_MAX_SPEED = (int) (0.75 * slow);
+        }
+        MAX_SPEED_SLOW_CAR = slow;
+        MAX_SPEED_FAST_CAR = fast;
+        HAS_BROKEN_CAR = broken;
+        if (HAS_BROKEN_CAR) {
+            NUM_SLOW_CARS++;   // broken car is counted in number of slow cars
+        }
+        BREAKING_DOWN_PROBABILITY = broken ? 0.3 : 0.0;
+        return SimulationConfig.fromGlobals();
+    }
+
+    /*
+    Run density continuations on all cores; if a chain fails, the others are stopped and no file is written
+    Output:
+        true, the measures of every point are written to filename, with the branch of the point (up or down) first
+    */
+    private static boolean runContinuations(List<DensityContinuation> continuations, String filename) throws IOException, InterruptedException, ExecutionException {
+        long startTime = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        Path file = Paths.get(filename);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");   // renamed once all chains are written
+        boolean written = false;
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            System.out.println("Running " + continuations.size() + " density continuations of " + continuations.get(0).getDensities().length + " points\n");
+            List<Future<List<SimulationResult>>> results = new ArrayList<>();
+            for (DensityContinuation continuation : continuations) {
+                results.add(pool.submit(continuation));
+            }
+            out.write("branch, " + SimulationResult.CSV_HEADER);
+            out.newLine();
+            for (int c = 0; c < continuations.size(); c++) {
+                double[] densities = continuations.get(c).getDensities();
+                List<SimulationResult> points = results.get(c).get();
+                for (int point = 0; point < points.size(); point++) {
+                    out.write(DensityContinuation.branch(densities, point) + "," + points.get(point).toCsvRow());
+                    out.newLine();
+                }
+            }
+            written = true;
+        } finally {
+            if (written) {
+                pool.shutdown();
+            } else {
+                pool.shutdownNow();                                             // interrupts the other chains
+                Files.deleteIfExists(tmp);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Running the continuations: " + (System.nanoTime() - startTime) / Math.pow(10, 9) + " seconds\n");
+        return true;
+    }
+
+    /*
+    Run the shards of a sweep left to do, together with the other JVMs sharing its directory
+    Output:
+        true if the JVM ran its shards, the results are merged into filename by the JVM which finishes the sweep last
+    */
+    private static boolean runSharedSweep(ShardedSweep sweep, String filename) throws IOException, InterruptedException, ExecutionException {
+        long startTime = System.nanoTime();
+        System.out.println("Running " + sweep.size() + " simulations in " + sweep.getNumShards() + " shards of " + SWEEP_DIRECTORY + "\n");
+        int runs = sweep.work();
+        System.out.println("Running " + runs + " simulations: " + (System.nanoTime() - startTime) / Math.pow(10, 9) + " seconds\n");
+
+        if (sweep.isComplete()) {
+            int rows = ShardedSweep.merge(Paths.get(SWEEP_DIRECTORY), Paths.get(filename));
+            System.out.println(rows + " rows written to " + filename + "\n");
+        } else {
+            System.out.println("Other JVMs still run shards, merge later with: java nsSimulation.ShardedSweep " + SWEEP_DIRECTORY + " " + filename + "\n");
+        }
+        return true;
+    }
     
 }
@@ -0,0 +1,345 @@
+package nsSimulation;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/*==============================================================================
+Columnar (struct-of-arrays) storage of all vehicles on a road
+- every attribute of a vehicle is kept in its own primitive array, indexed by slot
+- slots are kept sorted by lane, then by position within the lane, so that an
+  update step walks contiguous memory in road order
+- all columns are double-buffered: sorting writes into the back buffers which
+  are then swapped with the front ones, nothing is allocated after construction
+- the sort can also run in parallel on segments of the store (see SegmentTask),
+  the resulting order is exactly the one of the sequential sort
+- cars whose position is past the end of the road (they left an open road, see
+  RoadNetwork) are sorted after all lanes, in the last slots
+==============================================================================*/
+
+public class VehicleStore implements SegmentTask.Segmented {
+
+    // phases of the segmented sort
+    private static final int PHASE_COUNT = 0;
+    private static final int PHASE_SCATTER = 1;
+    private static final int PHASE_SORT_CHUNK = 2;
+
+    private int capacity;
+    private final int roadSize;
+    private int size = 0;
+
+    // front buffers, read and updated in place during a step
+    int[] id;                                   // ID of car, for debugging purpose
+    int[] lane;                                 // current lane of car
+    int[] position;                             // current position of car
+    int[] speed;                                // current speed of car
+    int[] maxSpeed;                             // maximum speed of car, depends on its type
+    int[] traveledDistance;                     // number of cells it has traveled so far
+    int[] maxReachedSpeed;                      // the max speed it has reached so far
+    int[] type;                                 // RoadNS.TYPE_CAR_SLOW, TYPE_CAR_FAST or TYPE_CAR_BROKEN
+    boolean[] brokenDown;                       // only meaningful for the broken car
+
+    // back buffers, target of the sort
+    private int[] idBack;
+    private int[] laneBack;
+    private int[] positionBack;
+    private int[] speedBack;
+    private int[] maxSpeedBack;
+    private int[] traveledDistanceBack;
+    private int[] maxReachedSpeedBack;
+    private int[] typeBack;
+    private boolean[] brokenDownBack;
+
+    private final int[] bucket;                 // counting sort buckets, one per (lane, cell); after a sort: the end slot of every (lane, cell)
+    private final int numKeys;                  // the (lane, cell) keys, plus a last one for the cars past the end of the road
+
+    // state of the segmented sort, (re)allocated when the number of segments changes
+    private int numSegments = 0;
+    private int chunkLength;                    // number of (lane, cell) keys per chunk, there is one chunk per segment
+    private int[] chunkOffsets;                 // per (segment, chunk): number of cars of the segment going to the chunk, then where they go
+    private int[] chunkStart;                   // first slot of every chunk, plus the size
+
+    public VehicleStore(int capacity, int numLanes, int roadSize) {
+        this.capacity = capacity;
+        this.roadSize = roadSize;
+
+        id = new int[capacity];
+        lane = new int[capacity];
+        position = new int[capacity];
+        speed = new int[capacity];
+        maxSpeed = new int[capacity];
+        traveledDistance = new int[capacity];
+        maxReachedSpeed = new int[capacity];
+        type = new int[capacity];
+        brokenDown = new boolean[capacity];
+
+        idBack = new int[capacity];
+        laneBack = new int[capacity];
+        positionBack = new int[capacity];
+        speedBack = new int[capacity];
+        maxSpeedBack = new int[capacity];
+        traveledDistanceBack = new int[capacity];
+        maxReachedSpeedBack = new int[capacity];
+        typeBack = new int[capacity];
+        brokenDownBack = new boolean[capacity];
+
+        numKeys = numLanes * roadSize + 1;
+        bucket = new int[numKeys + 1];
+    }
+
+    /*
+    Grow the columns, e.g. for an open road which receives cars from other roads
+    */
+    void ensureCapacity(int minCapacity) {
+        if (minCapacity <= capacity) return;
+        capacity = Math.max(minCapacity, capacity + (capacity >> 1) + 16);
+
+        id = Arrays.copyOf(id, capacity);
+        lane = Arrays.copyOf(lane, capacity);
+        position = Arrays.copyOf(position, capacity);
+        speed = Arrays.copyOf(speed, capacity);
+        maxSpeed = Arrays.copyOf(maxSpeed, capacity);
+        traveledDistance = Arrays.copyOf(traveledDistance, capacity);
+        maxReachedSpeed = Arrays.copyOf(maxReachedSpeed, capacity);
+        type = Arrays.copyOf(type, capacity);
+        brokenDown = Arrays.copyOf(brokenDown, capacity);
+
+        idBack = new int[capacity];
+        laneBack = new int[capacity];
+        positionBack = new int[capacity];
+        speedBack = new int[capacity];
+        maxSpeedBack = new int[capacity];
+        traveledDistanceBack = new int[capacity];
+        maxReachedSpeedBack = new int[capacity];
+        typeBack = new int[capacity];
+        brokenDownBack = new boolean[capacity];
+    }
+
+    /*
+    Append a car to the store, the order is restored by the next call to sortByLaneAndPosition()
+    Output:
+        the slot of the new car
+    */
+    public int add(int carID, int carLane, int carPosition, int carSpeed, int carMaxSpeed, int carType) {
+        if (size == capacity)
+            throw new IllegalStateException("Vehicle store is full: capacity = " + capacity);
+
+        int slot = size++;
+        id[slot] = carID;
+        lane[slot] = carLane;
+        position[slot] = carPosition;
+        speed[slot] = carSpeed;
+        maxSpeed[slot] = carMaxSpeed;
+        traveledDistance[slot] = 0;
+        maxReachedSpeed[slot] = -1;
+        type[slot] = carType;
+        brokenDown[slot] = false;
+        return slot;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+    Set the number of cars whose columns were filled directly, e.g. from a checkpoint
+    */
+    void setSize(int count) {
+        if (count < 0 || count > capacity)
+            throw new IllegalArgumentException("Vehicle store capacity is " + capacity + ": " + count + " cars");
+        size = count;
+    }
+
+    public int getID(int slot) {
+        return id[slot];
+    }
+
+    public int getLane(int slot) {
+        return lane[slot];
+    }
+
+    public int getPosition(int slot) {
+        return position[slot];
+    }
+
+    public int getSpeed(int slot) {
+        return speed[slot];
+    }
+
+    public int getMaxSpeed(int slot) {
+        return maxSpeed[slot];
+    }
+
+    public int getTraveledDistance(int slot) {
+        return traveledDistance[slot];
+    }
+
+    public int getMaxReachedSpeed(int slot) {
+        return maxReachedSpeed[slot];
+    }
+
+    public int getType(int slot) {
+        return type[slot];
+    }
+
+    /*
+    Find the cars at a given place on the road, only valid right after a sort
+    Output:
+        the first slot of the cars on the given lane at the given cell or after it,
+        cell may be equal to the road size (end of the lane)
+    */
+    public int firstSlotOf(int carLane, int cell) {
+        int k = (carLane - 1) * roadSize + cell;
+        return k == 0 ? 0 : bucket[k - 1];
+    }
+
+    /*
+    Rebuild the index of firstSlotOf() for cars which are already in order, e.g. restored from a checkpoint
+    */
+    void rebuildIndex() {
+        Arrays.fill(bucket, 0);
+        for (int i = 0; i < size; i++)
+            bucket[key(i)]++;
+        for (int k = 1; k < bucket.length; k++)
+            bucket[k] += bucket[k - 1];
+    }
+
+    /*==========================================================================
+    Restore the order of the slots (lane first, then position) after cars moved
+    - stable counting sort over the (lane, cell) keys, O(cars + lanes * road size)
+    - cars sharing a cell keep their relative order
+    ==========================================================================*/
+    public void sortByLaneAndPosition() {
+        Arrays.fill(bucket, 0);
+        for (int i = 0; i < size; i++)
+            bucket[key(i) + 1]++;
+        for (int k = 1; k < bucket.length; k++)
+            bucket[k] += bucket[k - 1];
+
+        for (int i = 0; i < size; i++) {
+            copyToBack(i, bucket[key(i)]++);
+        }
+
+        int[] tmp;
+        tmp = id; id = idBack; idBack = tmp;
+        tmp = lane; lane = laneBack; laneBack = tmp;
+        tmp = position; position = positionBack; positionBack = tmp;
+        tmp = speed; speed = speedBack; speedBack = tmp;
+        tmp = maxSpeed; maxSpeed = maxSpeedBack; maxSpeedBack = tmp;
+        tmp = traveledDistance; traveledDistance = traveledDistanceBack; traveledDistanceBack = tmp;
+        tmp = maxReachedSpeed; maxReachedSpeed = maxReachedSpeedBack; maxReachedSpeedBack = tmp;
+        tmp = type; type = typeBack; typeBack = tmp;
+        boolean[] tmpFlags = brokenDown; brokenDown = brokenDownBack; brokenDownBack = tmpFlags;
+    }
+
+    /*==========================================================================
+    Same as sortByLaneAndPosition(), with the work split in segments run on a pool
+    - the (lane, cell) keys are split in one chunk of consecutive keys per segment
+    - phase 1: every segment of slots counts its cars going to every chunk
+    - phase 2: every segment of slots moves its cars to their chunk (back buffers)
+    - phase 3: every chunk is sorted on its own (back to the front buffers)
+    Both phases keep the order of the slots, so the sort is stable and gives the
+    same result as the sequential one
+    ==========================================================================*/
+    public void sortByLaneAndPosition(ForkJoinPool pool, int segments) {
+        if (pool == null || segments == 1) {
+            sortByLaneAndPosition();
+            return;
+        }
+
+        if (numSegments != segments) {
+            numSegments = segments;
+            chunkLength = (numKeys + segments - 1) / segments;
+            chunkOffsets = new int[segments * segments];
+            chunkStart = new int[segments + 1];
+        }
+
+        SegmentTask.runPhase(pool, this, PHASE_COUNT, numSegments);
+
+        int running = 0;                        // offsets: chunk by chunk, in the order of the segments
+        for (int c = 0; c < numSegments; c++) {
+            chunkStart[c] = running;
+            for (int s = 0; s < numSegments; s++) {
+                int n = chunkOffsets[s * numSegments + c];
+                chunkOffsets[s * numSegments + c] = running;
+                running += n;
+            }
+        }
+        chunkStart[numSegments] = running;
+
+        SegmentTask.runPhase(pool, this, PHASE_SCATTER, numSegments);
+        SegmentTask.runPhase(pool, this, PHASE_SORT_CHUNK, numSegments);
+        bucket[numKeys] = size;
+    }
+
+    @Override
+    public void runPhase(int phase, int segment) {
+        int from = (int) ((long) size * segment / numSegments);
+        int to = (int) ((long) size * (segment + 1) / numSegments);
+        int row = segment * numSegments;
+
+        switch (phase) {
+            case PHASE_COUNT:
+                Arrays.fill(chunkOffsets, row, row + numSegments, 0);
+                for (int i = from; i < to; i++)
+                    chunkOffsets[row + key(i) / chunkLength]++;
+                break;
+
+            case PHASE_SCATTER:
+                for (int i = from; i < to; i++)
+                    copyToBack(i, chunkOffsets[row + key(i) / chunkLength]++);
+                break;
+
+            case PHASE_SORT_CHUNK:
+                int firstKey = segment * chunkLength;
+                int lastKey = Math.min(firstKey + chunkLength, numKeys);
+                if (firstKey >= lastKey) break;
+
+                Arrays.fill(bucket, firstKey, lastKey, 0);
+                for (int i = chunkStart[segment]; i < chunkStart[segment + 1]; i++)
+                    bucket[keyBack(i)]++;
+                int running = chunkStart[segment];
+                for (int k = firstKey; k < lastKey; k++) {
+                    int n = bucket[k];
+                    bucket[k] = running;
+                    running += n;
+                }
+                for (int i = chunkStart[segment]; i < chunkStart[segment + 1]; i++)
+                    copyToFront(i, bucket[keyBack(i)]++);
+                break;
+        }
+    }
+
+    private void copyToBack(int from, int to) {
+        idBack[to] = id[from];
+        laneBack[to] = lane[from];
+        positionBack[to] = position[from];
+        speedBack[to] = speed[from];
+        maxSpeedBack[to] = maxSpeed[from];
+        traveledDistanceBack[to] = traveledDistance[from];
+        maxReachedSpeedBack[to] = maxReachedSpeed[from];
+        typeBack[to] = type[from];
+        brokenDownBack[to] = brokenDown[from];
+    }
+
+    private void copyToFront(int from, int to) {
+        id[to] = idBack[from];
+        lane[to] = laneBack[from];
+        position[to] = positionBack[from];
+        speed[to] = speedBack[from];
+        maxSpeed[to] = maxSpeedBack[from];
+        traveledDistance[to] = traveledDistanceBack[from];
+        maxReachedSpeed[to] = maxReachedSpeedBack[from];
+        type[to] = typeBack[from];
+        brokenDown[to] = brokenDownBack[from];
+    }
+
+    private int key(int slot) {
+        int p = position[slot];
+        return p < roadSize ? (lane[slot] - 1) * roadSize + p : numKeys - 1;
+    }
+
+    private int keyBack(int slot) {
+        int p = positionBack[slot];
+        return p < roadSize ? (laneBack[slot] - 1) * roadSize + p : numKeys - 1;
+    }
+}
@@ -0,0 +1,36 @@
+package nsSimulation;
+
+/*==============================================================================
+Rules to move forward (CarNS.moveForward()) applied to a range of cars at once
+- the inputs are columns of the store and scratch columns filled by the lane
+  change of the cars, so the loop reads and writes consecutive ints only
+- the rules are written without branch (masks from the sign bit, min), so the
+  JIT compiles the loop to SIMD instructions (8 cars per AVX2 instruction) and
+  no car costs a mispredicted branch, whatever the dawdle draws
+- the results are identical to CarNS.moveForward(): a road can use either
+  (SimulationConfig.vectorKernel)
+==============================================================================*/
+
+final class VelocityKernel {
+
+    private VelocityKernel() {
+    }
+
+    /*
+    Input:
+        speed           speeds of the cars, replaced by the new speeds
+        maxSpeed        max speed of every car
+        gapFront        empty cells ahead of every car on its old lane, before the lane change (Integer.MAX_VALUE if no car)
+        dawdle          1 if the car dawdles in the step, 0 otherwise
+        from, to        the range [from, to) of cars
+    */
+    static void moveForward(int maxAcceleration, int[] speed, int[] maxSpeed, int[] gapFront, int[] dawdle, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int s = speed[i];
+            s += maxAcceleration & ((s - maxSpeed[i]) >> 31);  // accelerate below the max speed
+            s = Math.min(s, gapFront[i]);                       // do not hit the car ahead
+            s -= dawdle[i] & (-s >>> 31);                       // dawdle if the car moves
+            speed[i] = s;
+        }
+    }
+}